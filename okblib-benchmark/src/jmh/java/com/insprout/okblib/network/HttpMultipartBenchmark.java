@@ -0,0 +1,102 @@
+package com.insprout.okblib.network;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * multipart/form-dataの 送信データの作成と 書き出しの ベンチマーク
+ * form dataパートと ファイルパート 1つずつの組み合わせを 指定数含む送信データを、
+ * 通信の代わりに 受け取ったデータを破棄する OutputStreamに書き出す
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HttpMultipartBenchmark {
+    private final static String URL = "http://localhost/upload";
+
+    @Param({ "1", "10" })
+    public int partCount;
+
+    @Param({ "256", "4096" })
+    public int valueSize;
+
+    @Param({ "1024", "65536", "1048576" })
+    public int fileSize;
+
+    private File mFile;
+    private List<HttpParameter> mParams;
+    private HttpRequestBody mRequestBody;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[] data = new byte[fileSize];
+        new Random(fileSize).nextBytes(data);
+        mFile = File.createTempFile("okblib-benchmark", ".bin");
+        try (FileOutputStream outputStream = new FileOutputStream(mFile)) {
+            outputStream.write(data);
+        }
+
+        mParams = new ArrayList<>(partCount * 2);
+        for (int i = 0; i < partCount; i++) {
+            mParams.add(new HttpParameter("param" + i, HttpParameterBenchmark.createValue(valueSize, i)));
+            mParams.add(new HttpParameter("file" + i, mFile, "application/octet-stream"));
+        }
+        mRequestBody = new HttpRequest(HttpRequest.METHOD_POST, URL, mParams).getRequestBody();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (mFile != null) mFile.delete();
+    }
+
+    // パートの組み立て (boundaryと パートヘッダの作成)
+    @Benchmark
+    public long build() {
+        return new HttpRequest(HttpRequest.METHOD_POST, URL, mParams).getRequestBody().getContentLength();
+    }
+
+    // 組み立て済みの 送信データの書き出し
+    @Benchmark
+    public void writeTo(Blackhole blackhole) throws IOException, InterruptedException {
+        DiscardOutputStream outputStream = new DiscardOutputStream();
+        mRequestBody.writeTo(outputStream);
+        blackhole.consume(outputStream.mCount);
+    }
+
+
+    // 書き出されたデータの バイト数のみを数える OutputStream
+    private static class DiscardOutputStream extends OutputStream {
+        private long mCount = 0;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mCount += len;
+        }
+    }
+
+}
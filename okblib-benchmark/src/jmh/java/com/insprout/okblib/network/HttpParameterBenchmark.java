@@ -0,0 +1,64 @@
+package com.insprout.okblib.network;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpParameterの queryString, x-www-form-urlencodedの 送信データ作成の ベンチマーク
+ * 値には エンコードが必要な文字(空白, 記号, 日本語)と そのままの文字を 混在させる
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HttpParameterBenchmark {
+    private final static String CHARSET = "UTF-8";
+    private final static String VALUE_PATTERN = "abcXYZ-012_ &=/+あいう";
+
+    @Param({ "1", "10", "100" })
+    public int paramCount;
+
+    @Param({ "8", "256", "4096" })
+    public int valueSize;
+
+    private List<HttpParameter> mParams;
+
+
+    @Setup
+    public void setup() {
+        mParams = new ArrayList<>(paramCount);
+        for (int i = 0; i < paramCount; i++) {
+            mParams.add(new HttpParameter("param" + i, createValue(valueSize, i)));
+        }
+    }
+
+    // 指定された文字数の 値を作成する
+    static String createValue(int length, int seed) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(VALUE_PATTERN.charAt((i + seed) % VALUE_PATTERN.length()));
+        }
+        return builder.toString();
+    }
+
+    @Benchmark
+    public String toQueryString() {
+        return HttpParameter.toQueryString(mParams, CHARSET);
+    }
+
+    @Benchmark
+    public byte[] getBytes() {
+        return HttpParameter.getBytes(mParams, CHARSET);
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.insprout.okblib.network;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * レスポンスbodyを バイト配列に読み込む処理(HttpRequest.toBytes)の ベンチマーク
+ * Content-Lengthが分かっている場合(非圧縮)と 不明な場合(圧縮, chunked)を比較する
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HttpResponseBodyBenchmark {
+
+    @Param({ "1024", "65536", "1048576" })
+    public int bodySize;
+
+    @Param({ "true", "false" })
+    public boolean knownLength;
+
+    private byte[] mBody;
+    private HttpRequest mRequest;
+
+
+    @Setup
+    public void setup() {
+        mBody = new byte[bodySize];
+        new Random(bodySize).nextBytes(mBody);
+        mRequest = new HttpRequest(HttpRequest.METHOD_GET, "http://localhost/");
+    }
+
+    @Benchmark
+    public byte[] toBytes() throws IOException, InterruptedException {
+        return mRequest.toBytes(new ByteArrayInputStream(mBody), (knownLength ? bodySize : -1));
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.insprout.okblib.network;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * HttpRequestの 送信/受信の 通信量を制限するクラス (トークンバケット)
+ * 同じインスタンスを指定したリクエストは 合計で 指定された通信量に制限される。
+ * 制限を超えた場合は 必要な時間だけ sleepして待機する (待機中も abort()で中断できる)。
+ * 通信量は 実行中でも変更できる
+ */
+
+public class HttpBandwidthLimiter {
+    public final static long UNLIMITED = 0;
+
+    // 1回に 送信/受信を許可する 最大のバイト数。大きな書き込みは 分割して制限する
+    private final static int CHUNK_SIZE = 8 * 1024;
+    // abort()を確認する間隔
+    private final static long CHECK_ABORT_NANO_SEC = 100 * 1000 * 1000L;
+
+    private final Bucket mUpload = new Bucket();
+    private final Bucket mDownload = new Bucket();
+
+
+    public HttpBandwidthLimiter() {
+    }
+
+    /**
+     * @param uploadBytesPerSec 送信の 1秒あたりの バイト数。制限しない場合は UNLIMITED(0)
+     * @param downloadBytesPerSec 受信の 1秒あたりの バイト数。制限しない場合は UNLIMITED(0)
+     */
+    public HttpBandwidthLimiter(long uploadBytesPerSec, long downloadBytesPerSec) {
+        setUploadRate(uploadBytesPerSec);
+        setDownloadRate(downloadBytesPerSec);
+    }
+
+    // 送信の 1秒あたりの バイト数を指定。制限しない場合は UNLIMITED(0)
+    public HttpBandwidthLimiter setUploadRate(long bytesPerSec) {
+        mUpload.setRate(bytesPerSec);
+        return this;
+    }
+
+    // 受信の 1秒あたりの バイト数を指定。制限しない場合は UNLIMITED(0)
+    public HttpBandwidthLimiter setDownloadRate(long bytesPerSec) {
+        mDownload.setRate(bytesPerSec);
+        return this;
+    }
+
+    public long getUploadRate() {
+        return mUpload.getRate();
+    }
+
+    public long getDownloadRate() {
+        return mDownload.getRate();
+    }
+
+    // 受信用の ストリームに 制限を適用する
+    InputStream limitDownload(InputStream is, HttpRequest request) {
+        return new LimitedInputStream(is, mDownload, request);
+    }
+
+    // 送信用の ストリームに 制限を適用する
+    OutputStream limitUpload(OutputStream os, HttpRequest request) {
+        return new LimitedOutputStream(os, mUpload, request);
+    }
+
+    // 指定時間 待機する。リクエストが中断された場合は InterruptedIOException
+    private static void pause(long waitNanoSec, HttpRequest request) throws InterruptedIOException {
+        long deadline = System.nanoTime() + waitNanoSec;
+        try {
+            long remain;
+            while ((remain = deadline - System.nanoTime()) > 0) {
+                if (request != null && request.isAborted()) throw new InterruptedIOException();
+                long slice = Math.min(remain, CHECK_ABORT_NANO_SEC);
+                Thread.sleep(slice / 1000000, (int)(slice % 1000000));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+
+    // 一方向の 通信量を管理する トークンバケット
+    // トークンが不足した場合は 不足分を前借り(マイナス)にして、その分の待ち時間を返す
+    static class Bucket {
+        private long mRate = UNLIMITED;
+        private long mCapacity = 0;
+        private double mTokens = 0;
+        private long mLastNanoTime = 0;
+
+        void setRate(long bytesPerSec) {
+            setRate(bytesPerSec, System.nanoTime());
+        }
+
+        synchronized void setRate(long bytesPerSec, long nanoTime) {
+            mRate = Math.max(bytesPerSec, UNLIMITED);
+            // 0.25秒分(最低でも 1回分)の 連続した通信を許可する
+            mCapacity = Math.max(mRate / 4, CHUNK_SIZE);
+            // 変更前の 前借りや 蓄積は 引き継がない
+            mTokens = 0;
+            mLastNanoTime = nanoTime;
+        }
+
+        synchronized long getRate() {
+            return mRate;
+        }
+
+        long reserve(int bytes) {
+            return reserve(bytes, System.nanoTime());
+        }
+
+        /**
+         * 指定バイト数の 通信を予約する
+         * @param bytes バイト数
+         * @param now 現在時刻 (System.nanoTime())
+         * @return 通信を開始するまでに 待機する時間 (ナノ秒)
+         */
+        synchronized long reserve(int bytes, long now) {
+            if (mRate <= UNLIMITED) return 0;
+            mTokens = Math.min(mCapacity, mTokens + (now - mLastNanoTime) * (double)mRate / 1000000000L);
+            mLastNanoTime = now;
+            mTokens -= bytes;
+            return (mTokens >= 0 ? 0 : (long)(-mTokens * 1000000000L / mRate));
+        }
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+        private final Bucket mBucket;
+        private final HttpRequest mRequest;
+
+        private LimitedInputStream(InputStream in, Bucket bucket, HttpRequest request) {
+            super(in);
+            mBucket = bucket;
+            mRequest = request;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) pause(mBucket.reserve(1), mRequest);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            // 受信後に 受信した分を予約して、次の受信までの間隔を空ける
+            int size = super.read(buffer, offset, Math.min(length, CHUNK_SIZE));
+            if (size > 0) pause(mBucket.reserve(size), mRequest);
+            return size;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long size = super.skip(Math.min(n, CHUNK_SIZE));
+            if (size > 0) pause(mBucket.reserve((int)size), mRequest);
+            return size;
+        }
+    }
+
+    private static class LimitedOutputStream extends FilterOutputStream {
+        private final Bucket mBucket;
+        private final HttpRequest mRequest;
+
+        private LimitedOutputStream(OutputStream out, Bucket bucket, HttpRequest request) {
+            super(out);
+            mBucket = bucket;
+            mRequest = request;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            pause(mBucket.reserve(1), mRequest);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            // FilterOutputStreamの 1バイトずつの書き込みは行わず、分割して そのまま書き込む
+            while (length > 0) {
+                int size = Math.min(length, CHUNK_SIZE);
+                pause(mBucket.reserve(size), mRequest);
+                out.write(buffer, offset, size);
+                offset += size;
+                length -= size;
+            }
+        }
+    }
+
+}
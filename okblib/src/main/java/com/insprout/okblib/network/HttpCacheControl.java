@@ -0,0 +1,88 @@
+package com.insprout.okblib.network;
+
+import java.util.Locale;
+
+/**
+ * HttpRequestクラスで使用する Cache-Controlヘッダの解析結果
+ */
+
+class HttpCacheControl {
+    private boolean mNoStore = false;
+    private boolean mNoCache = false;
+    private boolean mMustRevalidate = false;
+    private long mMaxAgeSeconds = -1;
+
+
+    private HttpCacheControl() {
+    }
+
+    /**
+     * Cache-Controlヘッダを解析する
+     * @param value ヘッダの値。nullの場合は 何も指定されていないものとして扱う
+     * @return 解析結果
+     */
+    static HttpCacheControl parse(String value) {
+        HttpCacheControl cacheControl = new HttpCacheControl();
+        if (value == null) return cacheControl;
+
+        for (String directive : value.split(",")) {
+            String name = directive.trim().toLowerCase(Locale.ENGLISH);
+            String argument = null;
+            int ptr = name.indexOf('=');
+            if (ptr >= 0) {
+                argument = name.substring(ptr + 1).trim();
+                name = name.substring(0, ptr).trim();
+                // "～"で 囲まれている場合は 取り除く
+                if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")) {
+                    argument = argument.substring(1, argument.length() - 1);
+                }
+            }
+
+            switch (name) {
+                case "no-store":
+                    cacheControl.mNoStore = true;
+                    break;
+
+                case "no-cache":
+                    cacheControl.mNoCache = true;
+                    break;
+
+                case "must-revalidate":
+                    cacheControl.mMustRevalidate = true;
+                    break;
+
+                case "max-age":
+                    cacheControl.mMaxAgeSeconds = parseSeconds(argument);
+                    break;
+            }
+        }
+        return cacheControl;
+    }
+
+    boolean isNoStore() {
+        return mNoStore;
+    }
+
+    boolean isNoCache() {
+        return mNoCache;
+    }
+
+    boolean isMustRevalidate() {
+        return mMustRevalidate;
+    }
+
+    // max-ageの秒数。指定されていない場合は -1
+    long getMaxAgeSeconds() {
+        return mMaxAgeSeconds;
+    }
+
+    private static long parseSeconds(String value) {
+        if (value == null) return -1;
+        try {
+            return Math.max(Long.parseLong(value), 0);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
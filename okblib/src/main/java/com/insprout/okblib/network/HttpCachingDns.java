@@ -0,0 +1,209 @@
+package com.insprout.okblib.network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 名前解決の結果を 有効期間(TTL)の間 メモリに保持する HttpDns
+ * 解決できなかった結果も 短い有効期間で保持し、同じホスト名への問い合わせを繰り返さない。
+ * 有効期間の終わりが近い結果が使用された場合は、保持している結果を返しつつ バックグラウンドで更新する。
+ * バックグラウンドでの更新に失敗した場合は、有効期間内の結果を そのまま使用する。
+ * prefetch()で 通信の前に 名前解決を済ませておくことができる
+ */
+
+public class HttpCachingDns implements HttpDns {
+    public final static long DEFAULT_TTL_MILLI_SEC = 60 * 1000;
+    public final static long DEFAULT_NEGATIVE_TTL_MILLI_SEC = 10 * 1000;
+    private final static double REFRESH_RATIO = 0.75;              // 有効期間の 75%を過ぎたら 更新する
+    private final static int MAX_ENTRIES = 256;
+    private final static int REFRESH_THREADS = 2;
+
+    private final HttpDns mDelegate;
+    private final long mTtlMilliSec;
+    private final long mNegativeTtlMilliSec;
+    private final LinkedHashMap<String, Record> mEntries = new LinkedHashMap<String, Record>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final Set<String> mRefreshing = new HashSet<>();
+    private ExecutorService mRefreshExecutor = null;
+
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+    private long mNegativeHitCount = 0;
+    private long mRefreshCount = 0;
+
+
+    public HttpCachingDns() {
+        this(HttpDns.SYSTEM, DEFAULT_TTL_MILLI_SEC, DEFAULT_NEGATIVE_TTL_MILLI_SEC);
+    }
+
+    /**
+     * @param delegate 実際の名前解決を行う HttpDns
+     * @param ttlMilliSec 解決できた結果の 有効期間(ミリ秒)
+     * @param negativeTtlMilliSec 解決できなかった結果の 有効期間(ミリ秒)。0の場合は 保持しない
+     */
+    public HttpCachingDns(HttpDns delegate, long ttlMilliSec, long negativeTtlMilliSec) {
+        mDelegate = delegate;
+        mTtlMilliSec = ttlMilliSec;
+        mNegativeTtlMilliSec = negativeTtlMilliSec;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    // 解決できなかった結果を 保持していたため 問い合わせを行わなかった回数
+    public synchronized long getNegativeHitCount() {
+        return mNegativeHitCount;
+    }
+
+    // 有効期間の終わりが近いために バックグラウンドで更新した回数
+    public synchronized long getRefreshCount() {
+        return mRefreshCount;
+    }
+
+    public synchronized void resetStats() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mNegativeHitCount = 0;
+        mRefreshCount = 0;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * バックグラウンドで 名前解決を行い、結果を保持する
+     * 有効期間内の結果を 既に保持している場合は 何もしない
+     * @param hostname ホスト名
+     */
+    public void prefetch(String hostname) {
+        String key = hostname.toLowerCase(Locale.ENGLISH);
+        synchronized (this) {
+            Record record = mEntries.get(key);
+            if (record != null && record.mExpireTime > System.currentTimeMillis()) return;
+        }
+        refreshAsync(key);
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        String key = hostname.toLowerCase(Locale.ENGLISH);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Record record = mEntries.get(key);
+            if (record != null && record.mExpireTime > now) {
+                if (record.mAddresses == null) {
+                    mNegativeHitCount++;
+                    throw new UnknownHostException(hostname);
+                }
+                mHitCount++;
+                // 有効期間の終わりが近ければ、次の問い合わせに備えて 更新しておく
+                if (now >= record.mRefreshTime) refreshAsync(key);
+                return record.mAddresses;
+            }
+            mMissCount++;
+        }
+        return resolve(key);
+    }
+
+    // 名前解決を行い、結果を保持する
+    private List<InetAddress> resolve(String hostname) throws UnknownHostException {
+        try {
+            List<InetAddress> addresses = mDelegate.lookup(hostname);
+            if (addresses == null || addresses.isEmpty()) throw new UnknownHostException(hostname);
+            put(hostname, addresses, mTtlMilliSec);
+            return addresses;
+
+        } catch (UnknownHostException e) {
+            putNegative(hostname);
+            throw e;
+        }
+    }
+
+    // 解決できなかった結果を保持する
+    // 有効期間内の 解決できた結果を保持している場合(バックグラウンドでの更新の失敗)は、その結果を残して 次の更新を遅らせる
+    private synchronized void putNegative(String hostname) {
+        long now = System.currentTimeMillis();
+        Record record = mEntries.get(hostname);
+        if (record != null && record.mAddresses != null && record.mExpireTime > now) {
+            long refreshTime = Math.min(now + mNegativeTtlMilliSec, record.mExpireTime);
+            mEntries.put(hostname, new Record(record.mAddresses, record.mExpireTime, refreshTime));
+            return;
+        }
+        if (mNegativeTtlMilliSec > 0) put(hostname, null, mNegativeTtlMilliSec);
+    }
+
+    private synchronized void put(String hostname, List<InetAddress> addresses, long ttlMilliSec) {
+        long now = System.currentTimeMillis();
+        mEntries.put(hostname, new Record(addresses, now + ttlMilliSec, now + (long)(ttlMilliSec * REFRESH_RATIO)));
+    }
+
+    private synchronized void refreshAsync(final String hostname) {
+        // 同じホスト名の更新は 重複して行わない
+        if (!mRefreshing.add(hostname)) return;
+        if (mRefreshExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "HttpCachingDns");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            mRefreshExecutor = executor;
+        }
+        mRefreshCount++;
+        mRefreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resolve(hostname);
+                } catch (UnknownHostException e) {
+                    // 解決できなかった結果も resolve()で保持済み
+                } catch (RuntimeException e) {
+                    // バックグラウンドでの更新の失敗は 次回の lookup()で 改めて問い合わせる
+                } finally {
+                    synchronized (HttpCachingDns.this) {
+                        mRefreshing.remove(hostname);
+                    }
+                }
+            }
+        });
+    }
+
+
+    private static class Record {
+        private final List<InetAddress> mAddresses;     // 解決できなかった場合は null
+        private final long mExpireTime;
+        private final long mRefreshTime;
+
+        private Record(List<InetAddress> addresses, long expireTime, long refreshTime) {
+            mAddresses = addresses;
+            mExpireTime = expireTime;
+            mRefreshTime = refreshTime;
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.insprout.okblib.network;
+
+/**
+ * HttpUrlConnectionEngineで使用する keep-alive接続の設定クラス
+ * 実際のソケットは HttpURLConnectionの内部プールが保持するので、このクラスでは
+ * 内部プールの設定(アイドル接続の最大数、アイドル接続の破棄時間)を システムプロパティで指定する。
+ *
+ * 以下の制限がある
+ * ・設定は プロセス全体で共通 (http.keepAlive, http.maxConnections, http.keepAliveDuration)
+ * ・内部プールは 最初の通信時に1度だけ設定を読み込むので、通信を行う前(Application.onCreate()等)に configure()を呼び出すこと
+ * ・Androidでは アイドル接続の最大数は プロセス全体の数 (ホスト毎ではない)
+ *
+ * 接続の再利用の統計(ヒット/ミス)は、再利用したかを判別できる HttpSslSocketFactoryを使用した https接続のみを数える。
+ * httpの接続や 独自の SSLSocketFactoryを指定した接続は 再利用を判別できないので、getUnknownCount()に数える。
+ * 内部プールが アイドル接続を破棄したことは 判別できないので、破棄の数は数えない
+ */
+
+public class HttpConnectionPool {
+    // 内部プールの既定値 (Android)
+    public final static int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    public final static long DEFAULT_KEEP_ALIVE_MILLI_SEC = 5 * 60 * 1000L;     // 5分
+
+    // HttpUrlConnectionEngineで 接続を行ったか (以降は 設定が反映されない)
+    private static volatile boolean sConnected = false;
+    private static long sHitCount = 0;
+    private static long sMissCount = 0;
+    private static long sUnknownCount = 0;
+
+
+    private HttpConnectionPool() {
+    }
+
+    /**
+     * HttpURLConnectionの内部プールの設定を変更する
+     * @param maxIdleConnections 保持するアイドル接続の最大数。0の場合は keep-alive接続を使用しない
+     * @param keepAliveMilliSec アイドル接続を破棄するまでの時間(ミリ秒)
+     * @return このライブラリで まだ通信を行っておらず、設定が反映される場合は true
+     */
+    public static synchronized boolean configure(int maxIdleConnections, long keepAliveMilliSec) {
+        int maxIdle = Math.max(maxIdleConnections, 0);
+        System.setProperty("http.keepAlive", (maxIdle > 0 ? "true" : "false"));
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(maxIdle, 1)));
+        System.setProperty("http.keepAliveDuration", String.valueOf(Math.max(keepAliveMilliSec, 0)));
+        return !sConnected;
+    }
+
+    // keep-alive接続を 再利用した数
+    public static synchronized long getHitCount() {
+        return sHitCount;
+    }
+
+    // 新しく接続した数
+    public static synchronized long getMissCount() {
+        return sMissCount;
+    }
+
+    // 再利用したかを 判別できなかった接続の数
+    public static synchronized long getUnknownCount() {
+        return sUnknownCount;
+    }
+
+    public static synchronized void resetStats() {
+        sHitCount = 0;
+        sMissCount = 0;
+        sUnknownCount = 0;
+    }
+
+    // HttpUrlConnectionEngineの 接続の開始時に呼び出す
+    static void onConnect() {
+        sConnected = true;
+    }
+
+    /**
+     * HttpUrlConnectionEngineの 接続の完了時に呼び出す
+     * @param observable 再利用したかを 判別できたか
+     * @param reused 再利用した場合は true
+     */
+    static synchronized void onConnected(boolean observable, boolean reused) {
+        if (!observable) {
+            sUnknownCount++;
+        } else if (reused) {
+            sHitCount++;
+        } else {
+            sMissCount++;
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.insprout.okblib.network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * HttpRequestクラスで使用する レスポンスの Content-Encoding(gzip/deflate)の展開処理
+ */
+
+class HttpContentDecoder {
+    final static String ACCEPT_ENCODING = "gzip, deflate";
+
+    private final static String ENCODING_GZIP = "gzip";
+    private final static String ENCODING_DEFLATE = "deflate";
+    private final static int BUFF_SIZE = 8 * 1024;
+
+
+    /**
+     * Content-Encodingに応じて 展開しながら読み込む InputStreamを返す
+     * 対応していない Content-Encodingの場合は、元のストリームをそのまま返す
+     * @param is 受信したままの(圧縮された)ストリーム
+     * @param contentEncoding レスポンスの Content-Encoding
+     * @return 展開後のデータを返すストリーム
+     * @throws IOException gzipヘッダの読み込みに失敗した場合
+     */
+    static InputStream decode(InputStream is, String contentEncoding) throws IOException {
+        if (is == null || contentEncoding == null) return is;
+
+        String encoding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+        if (!ENCODING_GZIP.equals(encoding) && !ENCODING_DEFLATE.equals(encoding)) return is;
+
+        // 204や HEADなど bodyがカラの場合は 展開しない (GZIPInputStreamが EOFExceptionになるため)
+        PushbackInputStream pushback = new PushbackInputStream(is, 2);
+        byte[] head = new byte[2];
+        int size = readFully(pushback, head);
+        if (size <= 0) return pushback;
+        pushback.unread(head, 0, size);
+
+        if (ENCODING_GZIP.equals(encoding)) {
+            return new GZIPInputStream(pushback, BUFF_SIZE);
+        }
+        // deflateは 本来 zlib形式だが、zlibヘッダのない raw deflateを返すサーバもあるので判別する
+        boolean zlib = (size == 2 && (head[0] & 0x0f) == 8 && (((head[0] & 0xff) << 8) | (head[1] & 0xff)) % 31 == 0);
+        return new InflaterInputStream(pushback, new Inflater(!zlib), BUFF_SIZE);
+    }
+
+    private static int readFully(InputStream is, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int size = is.read(buffer, offset, buffer.length - offset);
+            if (size == -1) break;
+            offset += size;
+        }
+        return offset;
+    }
+
+
+    /**
+     * 読み込んだバイト数を記録する InputStream
+     * 展開前の 通信上のバイト数を計測するために使用する
+     */
+    static class CountingInputStream extends FilterInputStream {
+        private long mCount = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int data = super.read();
+            if (data != -1) mCount++;
+            return data;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int size = super.read(buffer, offset, length);
+            if (size > 0) mCount += size;
+            return size;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long size = super.skip(n);
+            if (size > 0) mCount += size;
+            return size;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+}
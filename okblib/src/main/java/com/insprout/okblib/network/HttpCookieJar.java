@@ -0,0 +1,415 @@
+package com.insprout.okblib.network;
+
+import android.os.Build;
+import android.webkit.CookieManager;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpRequestクラスの syncCookie()で使用する メモリ上の Cookie保存領域
+ * Cookieは ドメイン毎に保持し、リクエスト毎の CookieManagerの呼び出しは行わない。
+ * WebViewの CookieManagerとは 次のように同期する
+ *  ・CookieManagerの Cookieは URL毎に読み込み、短時間(IMPORT_TTL_MILLI_SEC)は 読み込んだ結果を使用する。
+ *    それを過ぎたら 読み込み直すので、WebViewで後から設定された Cookie(ログイン等)も反映される
+ *  ・CookieManagerから読み込んだ Cookieは 読み込んだ URLにのみ送信する (ドメイン, パスの判定は CookieManagerの結果に従う)
+ *  ・受信した Set-Cookieは まとめて 少し遅れて CookieManagerに書き込む。書き込むまでは 受信した Cookieを優先する
+ */
+
+public class HttpCookieJar {
+    private final static long FLUSH_DELAY_MILLI_SEC = 1000;        // 受信した Cookieを CookieManagerに書き込むまでの待ち時間
+    private final static int FLUSH_THRESHOLD = 32;                 // この件数を超えたら 待たずに書き込む
+    private final static long IMPORT_TTL_MILLI_SEC = 1000;         // CookieManagerから読み込んだ Cookieを 使用する時間
+    private final static int MAX_IMPORTED_URLS = 64;               // CookieManagerから読み込んだ結果を 保持する URLの数
+
+    private static HttpCookieJar sInstance = null;
+
+    private final Map<String, List<Cookie>> mCookies = new HashMap<>();    // ドメイン → Cookie
+    // URL(クエリを除く) → CookieManagerから読み込んだ Cookie
+    private final Map<String, ImportedCookies> mImportedCookies = new LinkedHashMap<String, ImportedCookies>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ImportedCookies> eldest) {
+            return size() > MAX_IMPORTED_URLS;
+        }
+    };
+    private final List<String[]> mPendingCookies = new ArrayList<>();      // {URL, Set-Cookieの値, ホスト名, Cookieの名前}
+    private final Object mFlushLock = new Object();                        // CookieManagerへの書き込みを 1つずつ行う
+    private ScheduledExecutorService mFlushExecutor = null;
+    private boolean mFlushScheduled = false;
+    private long mFlushCount = 0;
+
+
+    private HttpCookieJar() {
+    }
+
+    public static synchronized HttpCookieJar getInstance() {
+        if (sInstance == null) sInstance = new HttpCookieJar();
+        return sInstance;
+    }
+
+    // 保持している Cookieの数 (有効期限切れのものを含む)
+    public synchronized int getCookieCount() {
+        int count = 0;
+        for (List<Cookie> cookies : mCookies.values()) count += cookies.size();
+        return count;
+    }
+
+    // CookieManagerへの書き込みを行った回数
+    public synchronized long getFlushCount() {
+        return mFlushCount;
+    }
+
+    /**
+     * メモリ上の Cookieを全て破棄する。CookieManagerの内容は変更しない
+     * 次回の使用時に CookieManagerから 読み込み直す
+     */
+    public synchronized void clear() {
+        mCookies.clear();
+        mImportedCookies.clear();
+    }
+
+    /**
+     * CookieManagerへの書き込みを 待たずに行う
+     */
+    public void flush() {
+        synchronized (mFlushLock) {
+            List<String[]> pending;
+            synchronized (this) {
+                if (mPendingCookies.isEmpty()) return;
+                pending = new ArrayList<>(mPendingCookies);
+                mFlushCount++;
+            }
+            CookieManager cookieManager = CookieManager.getInstance();
+            for (String[] cookie : pending) {
+                cookieManager.setCookie(cookie[0], cookie[1]);
+            }
+            // 永続化する (API 21以降)
+            if (Build.VERSION.SDK_INT >= 21) cookieManager.flush();
+            synchronized (this) {
+                // 書き込みが終わるまでは 受信した Cookieを優先するため、書き込み後に 取り除く
+                mPendingCookies.subList(0, pending.size()).clear();
+                // 書き込んだ内容を反映するため、次回の使用時に CookieManagerから 読み込み直す
+                mImportedCookies.clear();
+            }
+        }
+    }
+
+
+    /**
+     * リクエストに付加する Cookieヘッダの値を返す
+     * @param url Cookieを紐づけるサイトの URL
+     * @return Cookieヘッダの値。送信する Cookieがない場合は null
+     */
+    String getCookieHeader(String url) {
+        URL target = toUrl(url);
+        if (target == null) return null;
+        String host = target.getHost().toLowerCase(Locale.ENGLISH);
+        List<String[]> imported = importFromCookieManager(url, target);
+
+        String path = (target.getPath().isEmpty() ? "/" : target.getPath());
+        boolean secure = "https".equalsIgnoreCase(target.getProtocol());
+        long now = System.currentTimeMillis();
+        List<Cookie> matches = new ArrayList<>();
+        synchronized (this) {
+            // ホスト名自身と 上位のドメインに設定された Cookieを集める
+            String domain = host;
+            while (true) {
+                List<Cookie> cookies = mCookies.get(domain);
+                if (cookies != null) {
+                    Iterator<Cookie> iterator = cookies.iterator();
+                    while (iterator.hasNext()) {
+                        Cookie cookie = iterator.next();
+                        if (cookie.isExpired(now)) {
+                            iterator.remove();
+                            continue;
+                        }
+                        if (cookie.matches(host, path, secure)) matches.add(cookie);
+                    }
+                }
+                int ptr = domain.indexOf('.');
+                if (ptr < 0 || domain.indexOf('.', ptr + 1) < 0) break;     // トップレベルドメインには 設定できない
+                domain = domain.substring(ptr + 1);
+            }
+        }
+        // CookieManagerから読み込んだ Cookieは 受信した Cookie(CookieManagerに未反映のものを含む)と 名前が重複しないものを送る
+        Set<String> names = new HashSet<>();
+        synchronized (this) {
+            for (Cookie cookie : matches) names.add(cookie.mName);
+            for (String[] pending : mPendingCookies) {
+                if (pending[2].equals(host)) names.add(pending[3]);
+            }
+        }
+        List<String[]> importedMatches = new ArrayList<>();
+        for (String[] pair : imported) {
+            if (names.add(pair[0])) importedMatches.add(pair);
+        }
+        if (matches.isEmpty() && importedMatches.isEmpty()) return null;
+
+        // パスの長いものを先に送る (RFC 6265 5.4)
+        Collections.sort(matches, new Comparator<Cookie>() {
+            @Override
+            public int compare(Cookie c1, Cookie c2) {
+                return c2.mPath.length() - c1.mPath.length();
+            }
+        });
+        StringBuilder builder = new StringBuilder();
+        for (Cookie cookie : matches) {
+            if (builder.length() > 0) builder.append("; ");
+            builder.append(cookie.mName).append('=').append(cookie.mValue);
+        }
+        for (String[] pair : importedMatches) {
+            if (builder.length() > 0) builder.append("; ");
+            builder.append(pair[0]).append('=').append(pair[1]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 受信した Set-Cookieを保存する。CookieManagerへの書き込みは まとめて後で行う
+     * @param url Cookieを紐づけるサイトの URL
+     * @param setCookies Set-Cookieヘッダの値
+     */
+    void saveFromResponse(String url, List<String> setCookies) {
+        if (setCookies.isEmpty()) return;
+        URL target = toUrl(url);
+        if (target == null) return;
+        String host = target.getHost().toLowerCase(Locale.ENGLISH);
+
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (String setCookie : setCookies) {
+                Cookie cookie = Cookie.parse(setCookie, target, host, now);
+                if (cookie == null) continue;
+                put(cookie, now);
+                mPendingCookies.add(new String[] { url, setCookie, host, cookie.mName });
+            }
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * URLに送信する Cookieを CookieManagerから読み込む。読み込んでから IMPORT_TTL_MILLI_SEC以内であれば 前回の結果を返す
+     * CookieManagerからは 名前と値しか得られないので、読み込んだ URLに対してのみ使用する
+     * @param url Cookieを紐づけるサイトの URL
+     * @param target urlを URLに変換したもの
+     * @return {名前, 値}のリスト
+     */
+    private List<String[]> importFromCookieManager(String url, URL target) {
+        String key = target.getProtocol() + "://" + target.getAuthority() + target.getPath();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            ImportedCookies imported = mImportedCookies.get(key);
+            if (imported != null && now - imported.mImportTime < IMPORT_TTL_MILLI_SEC) return imported.mPairs;
+        }
+
+        String cookies = CookieManager.getInstance().getCookie(url);
+        List<String[]> pairs = new ArrayList<>();
+        if (cookies != null) {
+            for (String pair : cookies.split(";")) {
+                int ptr = pair.indexOf('=');
+                if (ptr <= 0) continue;
+                pairs.add(new String[] { pair.substring(0, ptr).trim(), pair.substring(ptr + 1).trim() });
+            }
+        }
+        synchronized (this) {
+            mImportedCookies.put(key, new ImportedCookies(pairs, now));
+        }
+        return pairs;
+    }
+
+    // 同じ名前, ドメイン, パスの Cookieは 置き換える。有効期限切れの Cookieは 削除として扱う
+    private void put(Cookie cookie, long now) {
+        List<Cookie> cookies = mCookies.get(cookie.mDomain);
+        if (cookies == null) {
+            cookies = new ArrayList<>();
+            mCookies.put(cookie.mDomain, cookies);
+        }
+        Iterator<Cookie> iterator = cookies.iterator();
+        while (iterator.hasNext()) {
+            Cookie c = iterator.next();
+            if (c.mName.equals(cookie.mName) && c.mPath.equals(cookie.mPath)) iterator.remove();
+        }
+        if (!cookie.isExpired(now)) cookies.add(cookie);
+        if (cookies.isEmpty()) mCookies.remove(cookie.mDomain);
+    }
+
+    private void scheduleFlush() {
+        if (mPendingCookies.isEmpty()) return;
+        boolean immediate = (mPendingCookies.size() >= FLUSH_THRESHOLD);
+        if (mFlushScheduled && !immediate) return;
+
+        if (mFlushExecutor == null) {
+            mFlushExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "HttpCookieJar");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        mFlushScheduled = true;
+        mFlushExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (HttpCookieJar.this) {
+                    mFlushScheduled = false;
+                }
+                flush();
+            }
+        }, (immediate ? 0 : FLUSH_DELAY_MILLI_SEC), TimeUnit.MILLISECONDS);
+    }
+
+    private static URL toUrl(String url) {
+        try {
+            URL target = new URL(url);
+            return (target.getHost() != null && !target.getHost().isEmpty() ? target : null);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+
+    // CookieManagerから 読み込んだ Cookie
+    private static class ImportedCookies {
+        private final List<String[]> mPairs;
+        private final long mImportTime;
+
+        private ImportedCookies(List<String[]> pairs, long importTime) {
+            mPairs = pairs;
+            mImportTime = importTime;
+        }
+    }
+
+    static class Cookie {
+        private final String mName;
+        private final String mValue;
+        private final String mDomain;
+        private final String mPath;
+        private final long mExpireTime;         // セッションCookieの場合は -1
+        private final boolean mHostOnly;
+        private final boolean mSecure;
+
+        private Cookie(String name, String value, String domain, String path, long expireTime, boolean hostOnly, boolean secure) {
+            mName = name;
+            mValue = value;
+            mDomain = domain;
+            mPath = path;
+            mExpireTime = expireTime;
+            mHostOnly = hostOnly;
+            mSecure = secure;
+        }
+
+        /**
+         * Set-Cookieヘッダの値を解析する (RFC 6265 5.2)
+         * @return Cookie。不正な値や 他のドメインに対する指定の場合は null
+         */
+        static Cookie parse(String setCookie, URL url, String host, long now) {
+            String[] parts = setCookie.split(";");
+            int ptr = parts[0].indexOf('=');
+            if (ptr <= 0) return null;
+            String name = parts[0].substring(0, ptr).trim();
+            String value = parts[0].substring(ptr + 1).trim();
+            if (name.isEmpty()) return null;
+
+            String domain = null;
+            String path = null;
+            long expireTime = -1;
+            long maxAge = Long.MIN_VALUE;
+            boolean secure = false;
+            for (int i = 1; i < parts.length; i++) {
+                String attribute = parts[i].trim();
+                String attributeValue = "";
+                ptr = attribute.indexOf('=');
+                if (ptr >= 0) {
+                    attributeValue = attribute.substring(ptr + 1).trim();
+                    attribute = attribute.substring(0, ptr).trim();
+                }
+                switch (attribute.toLowerCase(Locale.ENGLISH)) {
+                    case "domain":
+                        if (attributeValue.startsWith(".")) attributeValue = attributeValue.substring(1);
+                        if (!attributeValue.isEmpty()) domain = attributeValue.toLowerCase(Locale.ENGLISH);
+                        break;
+
+                    case "path":
+                        if (attributeValue.startsWith("/")) path = attributeValue;
+                        break;
+
+                    case "max-age":
+                        try {
+                            maxAge = Long.parseLong(attributeValue);
+                        } catch (NumberFormatException e) {
+                            // 不正な値は 無視する
+                        }
+                        break;
+
+                    case "expires":
+                        long time = HttpDate.parse(attributeValue);
+                        if (time >= 0) expireTime = time;
+                        break;
+
+                    case "secure":
+                        secure = true;
+                        break;
+                }
+            }
+            // Max-Ageは Expiresより優先する。0以下は 削除の指定
+            if (maxAge != Long.MIN_VALUE) expireTime = (maxAge > 0 ? now + maxAge * 1000 : 0);
+
+            boolean hostOnly = (domain == null);
+            if (hostOnly) {
+                domain = host;
+            } else if (!host.equals(domain) && !host.endsWith("." + domain)) {
+                // リクエスト先のドメインに含まれない ドメインへの指定は 受け付けない
+                return null;
+            }
+            if (path == null) path = defaultPath(url.getPath());
+            return new Cookie(name, value, domain, path, expireTime, hostOnly, secure);
+        }
+
+        // Pathが指定されていない場合は リクエストパスの ディレクトリ部分
+        private static String defaultPath(String requestPath) {
+            if (requestPath == null || !requestPath.startsWith("/")) return "/";
+            int ptr = requestPath.lastIndexOf('/');
+            return (ptr == 0 ? "/" : requestPath.substring(0, ptr));
+        }
+
+        boolean isExpired(long now) {
+            return (mExpireTime >= 0 && mExpireTime <= now);
+        }
+
+        /**
+         * リクエスト先に 送信する Cookieかを返す (RFC 6265 5.4)。有効期限は 判定しない
+         * @param host リクエスト先の ホスト名 (小文字)
+         * @param path リクエスト先の パス
+         * @param secure httpsで送信する場合は true
+         */
+        boolean matches(String host, String path, boolean secure) {
+            if (mHostOnly ? !host.equals(mDomain) : !(host.equals(mDomain) || host.endsWith("." + mDomain))) return false;
+            if (mSecure && !secure) return false;
+            return matchesPath(path);
+        }
+
+        private boolean matchesPath(String requestPath) {
+            if (requestPath.equals(mPath)) return true;
+            if (!requestPath.startsWith(mPath)) return false;
+            return mPath.endsWith("/") || requestPath.charAt(mPath.length()) == '/';
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.insprout.okblib.network;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * HttpRequestクラスで使用する HTTPヘッダの日時(Date, Expires, Last-Modified等)の変換処理
+ */
+
+class HttpDate {
+    // RFC 7231で 受け付ける必要のある形式 (先頭が 送信時に使用する形式)
+    private final static String[] FORMATS = {
+            "EEE, dd MMM yyyy HH:mm:ss zzz",        // RFC 1123
+            "EEEE, dd-MMM-yy HH:mm:ss zzz",         // RFC 850
+            "EEE MMM d HH:mm:ss yyyy",              // asctime
+    };
+
+    /**
+     * HTTPヘッダの日時を ミリ秒に変換する
+     * @param value ヘッダの値
+     * @return 1970/1/1からの ミリ秒。変換できない場合は -1
+     */
+    static long parse(String value) {
+        if (value == null || value.isEmpty()) return -1;
+        for (String format : FORMATS) {
+            try {
+                Date date = createFormat(format).parse(value.trim());
+                if (date != null) return date.getTime();
+            } catch (ParseException e) {
+                // 次の形式で 変換を試みる
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * ミリ秒を HTTPヘッダの日時に変換する
+     * @param time 1970/1/1からの ミリ秒
+     * @return ヘッダの値
+     */
+    static String format(long time) {
+        return createFormat(FORMATS[0]).format(new Date(time));
+    }
+
+    // SimpleDateFormatは スレッドセーフではないので 毎回作成する
+    private static DateFormat createFormat(String format) {
+        DateFormat dateFormat = new SimpleDateFormat(format, Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return dateFormat;
+    }
+
+}
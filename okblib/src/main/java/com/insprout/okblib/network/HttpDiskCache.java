@@ -0,0 +1,488 @@
+package com.insprout.okblib.network;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * HttpRequestクラスで使用する ディスクキャッシュ
+ * GETリクエストの レスポンス(bodyとヘッダ)を 指定ディレクトリに保存し、
+ * Cache-Control/Expiresに従って 有効期間内は通信を行わずに返す。
+ * 有効期間を過ぎたものは If-None-Match/If-Modified-Sinceで サーバに確認し、304の場合は 保存したものを返す。
+ * 保存サイズの合計が 上限を超えた場合は、使用されていない順に削除する
+ */
+
+public class HttpDiskCache {
+    private final static String SUFFIX_META = ".meta";
+    private final static String SUFFIX_BODY = ".body";
+    private final static String SUFFIX_TMP = ".tmp";
+
+    private final static String KEY_KEY = "key";
+    private final static String KEY_STATUS = "status";
+    private final static String KEY_REQUEST_TIME = "requestTime";
+    private final static String KEY_RESPONSE_TIME = "responseTime";
+    private final static String KEY_HEADER_NAME = "header.name.";
+    private final static String KEY_HEADER_VALUE = "header.value.";
+
+    private final static String HEADER_EXPIRES = "Expires";
+    private final static String HEADER_AGE = "Age";
+    private final static String HEADER_ETAG = "ETag";
+    private final static String HEADER_LAST_MODIFIED = "Last-Modified";
+    private final static String HEADER_VARY = "Vary";
+    private final static String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private final static String HEADER_CONTENT_LENGTH = "Content-Length";
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    // キャッシュファイル名 → サイズ (アクセス順)
+    private LinkedHashMap<String, Long> mEntries = null;
+    private long mSize = 0;
+    private long mHitCount = 0;
+    private long mConditionalHitCount = 0;
+    private long mNetworkCount = 0;
+
+
+    /**
+     * @param directory キャッシュを保存するディレクトリ (他の用途と共用しないこと)
+     * @param maxSize 保存サイズの上限(バイト数)
+     */
+    public HttpDiskCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized long getSize() {
+        loadEntries();
+        return mSize;
+    }
+
+    // 通信を行わずに キャッシュから返した回数
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    // サーバへの確認(304)で キャッシュから返した回数
+    public synchronized long getConditionalHitCount() {
+        return mConditionalHitCount;
+    }
+
+    // キャッシュを使用できず 通信でレスポンスを取得した回数
+    public synchronized long getNetworkCount() {
+        return mNetworkCount;
+    }
+
+    // 保存したキャッシュを すべて削除する
+    public synchronized void clear() {
+        loadEntries();
+        for (String name : mEntries.keySet()) {
+            deleteFiles(name);
+        }
+        mEntries.clear();
+        mSize = 0;
+    }
+
+
+    /**
+     * キャッシュを取得する
+     * @param key キャッシュのキー
+     * @return キャッシュ。保存されていない場合は null
+     */
+    synchronized Entry get(String key) {
+        loadEntries();
+        String name = toFileName(key);
+        if (!mEntries.containsKey(name)) return null;
+
+        Entry entry = loadEntry(name);
+        if (entry == null || !key.equals(entry.mKey)) {
+            // 読み込めないものは 削除しておく
+            remove(name);
+            return null;
+        }
+        // アクセス順を更新する (再起動後も 順序が分かるように ファイルの更新日時も変更しておく)
+        mEntries.get(name);
+        new File(mDirectory, name + SUFFIX_META).setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * レスポンスを キャッシュに保存する。キャッシュできないレスポンスの場合は 何もしない
+     * @param key キャッシュのキー
+     * @param response レスポンス
+     * @param responseFile レスポンスbodyを ファイルで受信した場合は そのファイル。バイト配列の場合は null
+     * @param requestTime リクエストの送信時刻
+     * @param responseTime レスポンスの受信時刻
+     */
+    synchronized void put(String key, HttpResponse response, File responseFile, long requestTime, long responseTime) {
+        HttpHeaders headers = response.getHeaders();
+        if (!isCacheable(response.getHttpStatus(), headers)) return;
+        loadEntries();
+
+        String name = toFileName(key);
+        byte[] body = response.getResponseBytes();
+        long bodyLength = (responseFile != null ? responseFile.length() : (body != null ? body.length : 0));
+        if (bodyLength > mMaxSize) {
+            // 上限サイズを超えるものは 保存しても直ぐに削除されるので、コピーを行わない (保存済みの古いものは削除する)
+            remove(name);
+            return;
+        }
+        File bodyTmp = new File(mDirectory, name + SUFFIX_BODY + SUFFIX_TMP);
+        try {
+            // bodyは 展開後のデータを保存するので、圧縮に関するヘッダは保存しない
+            HttpHeaders storeHeaders = headers.newBuilder()
+                    .removeAll(HEADER_CONTENT_ENCODING)
+                    .removeAll(HEADER_CONTENT_LENGTH)
+                    .build();
+
+            if (responseFile != null) {
+                try (InputStream inStream = new FileInputStream(responseFile)) {
+                    writeFile(bodyTmp, inStream, null);
+                }
+            } else {
+                writeFile(bodyTmp, null, (body != null ? body : new byte[0]));
+            }
+            remove(name);
+            storeMeta(name, key, response.getHttpStatus(), storeHeaders, requestTime, responseTime);
+            if (!bodyTmp.renameTo(new File(mDirectory, name + SUFFIX_BODY))) throw new IOException();
+            addEntry(name);
+
+        } catch (IOException | SecurityException e) {
+            // 保存に失敗した場合は キャッシュしない
+            bodyTmp.delete();
+            deleteFiles(name);
+        }
+    }
+
+    /**
+     * サーバへの確認結果(304)のヘッダで キャッシュを更新する
+     * @return 更新後のキャッシュ。更新できなかった場合は null
+     */
+    synchronized Entry update(Entry entry, HttpHeaders notModifiedHeaders, long requestTime, long responseTime) {
+        HttpHeaders.Builder builder = entry.mHeaders.newBuilder();
+        // 304のヘッダで 保存しているヘッダを上書きする (bodyに関するヘッダは除く)
+        // 同じ名前のヘッダが複数ある場合は 全てを置き換える
+        for (int i = 0; i < notModifiedHeaders.size(); i++) {
+            String headerName = notModifiedHeaders.name(i);
+            if (HEADER_CONTENT_LENGTH.equalsIgnoreCase(headerName)) continue;
+            if (HEADER_CONTENT_ENCODING.equalsIgnoreCase(headerName)) continue;
+            builder.removeAll(headerName);
+        }
+        for (int i = 0; i < notModifiedHeaders.size(); i++) {
+            String headerName = notModifiedHeaders.name(i);
+            if (HEADER_CONTENT_LENGTH.equalsIgnoreCase(headerName)) continue;
+            if (HEADER_CONTENT_ENCODING.equalsIgnoreCase(headerName)) continue;
+            builder.add(headerName, notModifiedHeaders.value(i));
+        }
+        HttpHeaders headers = builder.build();
+        String name = toFileName(entry.mKey);
+        try {
+            storeMeta(name, entry.mKey, entry.mStatus, headers, requestTime, responseTime);
+        } catch (IOException | SecurityException e) {
+            remove(name);
+            return null;
+        }
+        return loadEntry(name);
+    }
+
+    /**
+     * キャッシュから レスポンスを作成する
+     * @param entry キャッシュ
+     * @param responseFile レスポンスbodyを ファイルで返す場合は 出力先のファイル。バイト配列で返す場合は null
+     * @param conditional true: サーバへの確認(304)を行った
+     * @return レスポンス。キャッシュの読み込みに失敗した場合は null
+     */
+    HttpResponse toResponse(Entry entry, File responseFile, boolean conditional) {
+        try {
+            byte[] body = null;
+            long length;
+            if (responseFile != null) {
+                HttpDownloadFile downloadFile = new HttpDownloadFile(responseFile);
+                try (InputStream inStream = new FileInputStream(entry.mBodyFile)) {
+                    length = downloadFile.write(inStream, entry.mBodyFile.length());
+                }
+                downloadFile.commit();
+            } else {
+                body = readFile(entry.mBodyFile);
+                length = body.length;
+            }
+            synchronized (this) {
+                if (conditional) mConditionalHitCount++; else mHitCount++;
+            }
+            HttpResponse response = new HttpResponse(entry.mStatus, body, entry.mHeaders, 0, length);
+            response.setFromCache(true);
+            return response;
+
+        } catch (IOException | InterruptedException | SecurityException e) {
+            return null;
+        }
+    }
+
+    // 通信でレスポンスを取得したことを記録する
+    synchronized void onNetworkResponse() {
+        mNetworkCount++;
+    }
+
+
+    private void remove(String name) {
+        Long size = mEntries.remove(name);
+        if (size != null) mSize -= size;
+        deleteFiles(name);
+    }
+
+    private void addEntry(String name) {
+        long size = new File(mDirectory, name + SUFFIX_META).length() + new File(mDirectory, name + SUFFIX_BODY).length();
+        mEntries.put(name, size);
+        mSize += size;
+        trimToSize();
+    }
+
+    // 上限サイズを超えている場合は 使用されていない順に削除する
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            mSize -= entry.getValue();
+            deleteFiles(entry.getKey());
+            iterator.remove();
+        }
+    }
+
+    // ディレクトリ内の キャッシュの一覧を 使用された順に読み込む
+    private void loadEntries() {
+        if (mEntries != null) return;
+        mEntries = new LinkedHashMap<>(16, 0.75f, true);
+        mSize = 0;
+        if (!mDirectory.exists()) mDirectory.mkdirs();
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long diff = file1.lastModified() - file2.lastModified();
+                return (diff < 0 ? -1 : (diff > 0 ? 1 : 0));
+            }
+        });
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.endsWith(SUFFIX_TMP)) {
+                // 保存途中で 終了した場合のファイル
+                file.delete();
+                continue;
+            }
+            if (!fileName.endsWith(SUFFIX_META)) continue;
+
+            String name = fileName.substring(0, fileName.length() - SUFFIX_META.length());
+            File bodyFile = new File(mDirectory, name + SUFFIX_BODY);
+            if (!bodyFile.exists()) {
+                file.delete();
+                continue;
+            }
+            long size = file.length() + bodyFile.length();
+            mEntries.put(name, size);
+            mSize += size;
+        }
+        trimToSize();
+    }
+
+    private Entry loadEntry(String name) {
+        Properties meta = new Properties();
+        try (InputStream inStream = new FileInputStream(new File(mDirectory, name + SUFFIX_META))) {
+            meta.load(inStream);
+
+            HttpHeaders.Builder headers = new HttpHeaders.Builder();
+            for (int i = 0; meta.getProperty(KEY_HEADER_NAME + i) != null; i++) {
+                headers.add(meta.getProperty(KEY_HEADER_NAME + i), meta.getProperty(KEY_HEADER_VALUE + i, ""));
+            }
+            return new Entry(meta.getProperty(KEY_KEY),
+                    Integer.parseInt(meta.getProperty(KEY_STATUS)),
+                    headers.build(),
+                    Long.parseLong(meta.getProperty(KEY_REQUEST_TIME)),
+                    Long.parseLong(meta.getProperty(KEY_RESPONSE_TIME)),
+                    new File(mDirectory, name + SUFFIX_BODY));
+
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void storeMeta(String name, String key, int status, HttpHeaders headers, long requestTime, long responseTime) throws IOException {
+        Properties meta = new Properties();
+        meta.setProperty(KEY_KEY, key);
+        meta.setProperty(KEY_STATUS, String.valueOf(status));
+        meta.setProperty(KEY_REQUEST_TIME, String.valueOf(requestTime));
+        meta.setProperty(KEY_RESPONSE_TIME, String.valueOf(responseTime));
+        // 同じ名前のヘッダも 受信した順に全て保存する
+        for (int i = 0; i < headers.size(); i++) {
+            meta.setProperty(KEY_HEADER_NAME + i, headers.name(i));
+            meta.setProperty(KEY_HEADER_VALUE + i, headers.value(i));
+        }
+
+        File metaTmp = new File(mDirectory, name + SUFFIX_META + SUFFIX_TMP);
+        try (OutputStream outStream = new FileOutputStream(metaTmp)) {
+            meta.store(outStream, null);
+        }
+        File metaFile = new File(mDirectory, name + SUFFIX_META);
+        if (!metaTmp.renameTo(metaFile)) {
+            metaTmp.delete();
+            throw new IOException("cannot rename " + metaTmp);
+        }
+    }
+
+    private void deleteFiles(String name) {
+        new File(mDirectory, name + SUFFIX_META).delete();
+        new File(mDirectory, name + SUFFIX_BODY).delete();
+    }
+
+    private static void writeFile(File file, InputStream inStream, byte[] bytes) throws IOException {
+        try (OutputStream outStream = new FileOutputStream(file)) {
+            if (bytes != null) {
+                outStream.write(bytes);
+            } else {
+                byte[] buffer = new byte[ 16 * 1024 ];
+                int size;
+                while ((size = inStream.read(buffer)) != -1) {
+                    outStream.write(buffer, 0, size);
+                }
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE - 8) throw new IOException("too large");
+        byte[] bytes = new byte[ (int)length ];
+        try (InputStream inStream = new FileInputStream(file)) {
+            int offset = 0;
+            int size;
+            while (offset < bytes.length && (size = inStream.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += size;
+            }
+            if (offset != bytes.length) throw new IOException("unexpected end of file");
+        }
+        return bytes;
+    }
+
+    // キーを ファイル名に変換する (SHA-1の 16進文字列)
+    private static String toFileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(HttpRequest.ENCODING));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(String.format(Locale.ENGLISH, "%02x", b & 0xff));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    /**
+     * キャッシュに保存できるレスポンスかを判定する
+     * 200以外、no-store、Vary(Accept-Encoding以外)が指定されたものは保存しない。
+     * また 有効期間も 検証用の値(ETag, Last-Modified)もないものは 再利用できないので保存しない
+     */
+    private static boolean isCacheable(int status, HttpHeaders headers) {
+        if (status != 200) return false;
+
+        HttpCacheControl cacheControl = headers.getCacheControl();
+        if (cacheControl.isNoStore()) return false;
+        String vary = headers.get(HEADER_VARY);
+        if (vary != null && !vary.trim().isEmpty() && !"accept-encoding".equalsIgnoreCase(vary.trim())) return false;
+
+        return (cacheControl.getMaxAgeSeconds() > 0
+                || headers.get(HEADER_EXPIRES) != null
+                || headers.get(HEADER_ETAG) != null
+                || headers.get(HEADER_LAST_MODIFIED) != null);
+    }
+
+
+    /**
+     * 保存されている キャッシュ
+     */
+    static class Entry {
+        private final String mKey;
+        private final int mStatus;
+        private final HttpHeaders mHeaders;
+        private final long mRequestTime;
+        private final long mResponseTime;
+        private final File mBodyFile;
+
+        private Entry(String key, int status, HttpHeaders headers, long requestTime, long responseTime, File bodyFile) {
+            mKey = key;
+            mStatus = status;
+            mHeaders = headers;
+            mRequestTime = requestTime;
+            mResponseTime = responseTime;
+            mBodyFile = bodyFile;
+        }
+
+        /**
+         * 有効期間内かを判定する (RFC 7234 4.2)
+         * @param now 現在時刻
+         * @return true: 有効期間内で サーバへの確認は不要
+         */
+        boolean isFresh(long now) {
+            HttpCacheControl cacheControl = mHeaders.getCacheControl();
+            if (cacheControl.isNoCache()) return false;
+
+            long date = mHeaders.getDate();
+            long served = (date >= 0 ? date : mResponseTime);
+
+            // 有効期間
+            long lifetime = 0;
+            if (cacheControl.getMaxAgeSeconds() >= 0) {
+                lifetime = cacheControl.getMaxAgeSeconds() * 1000;
+            } else if (mHeaders.get(HEADER_EXPIRES) != null) {
+                lifetime = mHeaders.getDate(HEADER_EXPIRES) - served;
+            } else if (!cacheControl.isMustRevalidate()) {
+                // 有効期間の指定がない場合は、最終更新日時からの経過時間の 10%を有効期間とする
+                long lastModified = mHeaders.getDate(HEADER_LAST_MODIFIED);
+                if (lastModified >= 0 && served > lastModified) lifetime = (served - lastModified) / 10;
+            }
+
+            // 受信時点での経過時間 + 受信してからの経過時間
+            long apparentAge = Math.max(0, mResponseTime - served);
+            long ageValue = 0;
+            try {
+                String age = mHeaders.get(HEADER_AGE);
+                if (age != null) ageValue = Long.parseLong(age.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                ageValue = 0;
+            }
+            long currentAge = Math.max(apparentAge, ageValue) + (mResponseTime - mRequestTime) + (now - mResponseTime);
+            return lifetime > currentAge;
+        }
+
+        // サーバへの確認用の ヘッダを返す
+        Map<String, String> getConditionalHeaders() {
+            Map<String, String> headers = new HashMap<>();
+            String etag = mHeaders.get(HEADER_ETAG);
+            String lastModified = mHeaders.get(HEADER_LAST_MODIFIED);
+            if (etag != null) headers.put("If-None-Match", etag);
+            if (lastModified != null) headers.put("If-Modified-Since", lastModified);
+            return headers;
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.insprout.okblib.network;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Http通信を スレッドプールで並列に実行するクラス
+ * AsyncTaskの SERIAL_EXECUTORと異なり、全体の同時実行数と ホスト毎の同時実行数の上限まで 並列に実行する。
+ * 上限を超えた分は 登録順に待機させ、実行中の通信が終了した時点で 開始する。
+ * 待機数と 待機時間を記録するので、上限の調整に使用できる
+ */
+
+public class HttpDispatcher {
+    public final static int DEFAULT_MAX_REQUESTS = 8;
+    public final static int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+    private final static long KEEP_ALIVE_SEC = 60;
+
+    private static HttpDispatcher sDefault = null;
+
+    private final ExecutorService mExecutorService;
+    private final Handler mMainHandler;
+    private int mMaxRequests;
+    private int mMaxRequestsPerHost;
+
+    private final ArrayDeque<Call> mReadyCalls = new ArrayDeque<>();
+    private final Map<String, Integer> mRunningPerHost = new HashMap<>();
+    private int mRunningCount = 0;
+
+    // 統計
+    private long mStartedCount = 0;
+    private long mTotalWaitMilliSec = 0;
+    private long mMaxWaitMilliSec = 0;
+    private int mMaxQueuedCount = 0;
+
+
+    public HttpDispatcher(int maxRequests, int maxRequestsPerHost) {
+        mMaxRequests = Math.max(maxRequests, 1);
+        mMaxRequestsPerHost = Math.max(maxRequestsPerHost, 1);
+        mMainHandler = new Handler(Looper.getMainLooper());
+
+        // 同時実行数は このクラスで制御するので、スレッドは必要な分だけ作成する
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        mExecutorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "HttpDispatcher #" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    public static synchronized HttpDispatcher getDefault() {
+        if (sDefault == null) sDefault = new HttpDispatcher(DEFAULT_MAX_REQUESTS, DEFAULT_MAX_REQUESTS_PER_HOST);
+        return sDefault;
+    }
+
+    public synchronized void setMaxRequests(int maxRequests) {
+        mMaxRequests = Math.max(maxRequests, 1);
+        promoteCalls();
+    }
+
+    public synchronized void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        mMaxRequestsPerHost = Math.max(maxRequestsPerHost, 1);
+        promoteCalls();
+    }
+
+    public synchronized int getMaxRequests() {
+        return mMaxRequests;
+    }
+
+    public synchronized int getMaxRequestsPerHost() {
+        return mMaxRequestsPerHost;
+    }
+
+    // 待機中の数
+    public synchronized int getQueuedCount() {
+        return mReadyCalls.size();
+    }
+
+    // 待機中の数の 最大値
+    public synchronized int getMaxQueuedCount() {
+        return mMaxQueuedCount;
+    }
+
+    // 実行中の数
+    public synchronized int getRunningCount() {
+        return mRunningCount;
+    }
+
+    // 開始した数
+    public synchronized long getStartedCount() {
+        return mStartedCount;
+    }
+
+    // 登録されてから 開始されるまでの 平均待機時間(ミリ秒)
+    public synchronized long getAverageWaitMilliSec() {
+        return (mStartedCount > 0 ? mTotalWaitMilliSec / mStartedCount : 0);
+    }
+
+    // 登録されてから 開始されるまでの 最大待機時間(ミリ秒)
+    public synchronized long getMaxWaitMilliSec() {
+        return mMaxWaitMilliSec;
+    }
+
+    public synchronized void resetStats() {
+        mStartedCount = 0;
+        mTotalWaitMilliSec = 0;
+        mMaxWaitMilliSec = 0;
+        mMaxQueuedCount = mReadyCalls.size();
+    }
+
+
+    /**
+     * リクエストを登録する。実行可能になった時点で 通信を開始し、結果は メインスレッドで listenerに通知する
+     * 中断する場合は HttpRequest.abort()または HttpRequest.cancelAll()を使用する。中断した場合は 通知しない
+     * @param request 実行するリクエスト
+     * @param responseFile レスポンスの出力先ファイル。バイト配列で受け取る場合は null
+     * @param listener 結果を受け取るリスナー
+     */
+    public void enqueue(final HttpRequest request, final File responseFile, final HttpRequestTask.OnResponseListener listener) {
+        enqueue(request.getHost(), new Runnable() {
+            @Override
+            public void run() {
+                final HttpResponse response = request.execute(responseFile);
+                if (listener == null || request.isAborted()) return;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!request.isAborted()) listener.onResponse(response);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 指定ホスト向けの処理を登録する Executorを返す
+     * AsyncTask.executeOnExecutor()に指定して、AsyncTaskを このクラスで実行するために使用する
+     * @param host 接続先のホスト
+     * @return Executor
+     */
+    public Executor getExecutor(final String host) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                enqueue(host, command);
+            }
+        };
+    }
+
+
+    private synchronized void enqueue(String host, Runnable runnable) {
+        mReadyCalls.add(new Call(host, runnable));
+        mMaxQueuedCount = Math.max(mMaxQueuedCount, mReadyCalls.size());
+        promoteCalls();
+    }
+
+    // 上限に達していなければ、待機中のものを 登録順に開始する
+    private void promoteCalls() {
+        Iterator<Call> iterator = mReadyCalls.iterator();
+        while (mRunningCount < mMaxRequests && iterator.hasNext()) {
+            Call call = iterator.next();
+            if (getRunningCount(call.mHost) >= mMaxRequestsPerHost) continue;
+
+            iterator.remove();
+            mRunningCount++;
+            mRunningPerHost.put(call.mHost, getRunningCount(call.mHost) + 1);
+
+            long wait = System.currentTimeMillis() - call.mEnqueuedTime;
+            mStartedCount++;
+            mTotalWaitMilliSec += wait;
+            mMaxWaitMilliSec = Math.max(mMaxWaitMilliSec, wait);
+            mExecutorService.execute(call);
+        }
+    }
+
+    private synchronized void finished(Call call) {
+        mRunningCount--;
+        int count = getRunningCount(call.mHost) - 1;
+        if (count > 0) {
+            mRunningPerHost.put(call.mHost, count);
+        } else {
+            mRunningPerHost.remove(call.mHost);
+        }
+        promoteCalls();
+    }
+
+    private int getRunningCount(String host) {
+        Integer count = mRunningPerHost.get(host);
+        return (count != null ? count : 0);
+    }
+
+
+    private class Call implements Runnable {
+        private final String mHost;
+        private final Runnable mRunnable;
+        private final long mEnqueuedTime;
+
+        private Call(String host, Runnable runnable) {
+            mHost = (host != null ? host : "");
+            mRunnable = runnable;
+            mEnqueuedTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void run() {
+            try {
+                mRunnable.run();
+            } finally {
+                finished(this);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.insprout.okblib.network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * HttpRequestクラスで使用する 名前解決の インターフェース
+ * HttpRequest.setDns()等で指定した場合は、接続先のホスト名を この実装で解決した アドレスに接続する
+ */
+
+public interface HttpDns {
+
+    // システムの名前解決 (InetAddress.getAllByName())
+    HttpDns SYSTEM = new HttpDns() {
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            return Arrays.asList(InetAddress.getAllByName(hostname));
+        }
+    };
+
+    /**
+     * ホスト名を解決する
+     * @param hostname ホスト名
+     * @return アドレス (1件以上)。先頭のアドレスに接続する
+     * @throws UnknownHostException 解決できない場合
+     */
+    List<InetAddress> lookup(String hostname) throws UnknownHostException;
+
+}
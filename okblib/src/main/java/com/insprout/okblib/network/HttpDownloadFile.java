@@ -0,0 +1,230 @@
+package com.insprout.okblib.network;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Properties;
+
+/**
+ * HttpRequestクラスで使用する ファイル受信用クラス
+ * 受信中は 一時ファイル(.part)に書き込み、受信が完了した時点で 出力先ファイルに rename(置き換え)する
+ * レジューム用に、一時ファイルの取得元(URL, ETag, Last-Modified)を 管理ファイル(.part.info)に記録する
+ */
+
+class HttpDownloadFile {
+    private final static String SUFFIX_PART = ".part";
+    private final static String SUFFIX_INFO = ".info";
+    private final static String KEY_URL = "url";
+    private final static String KEY_ETAG = "etag";
+    private final static String KEY_LAST_MODIFIED = "lastModified";
+    private final static int DIRECT_BUFF_SIZE = 256 * 1024;
+
+    private final File mFile;
+    private final File mPartFile;
+    private final File mInfoFile;
+
+
+    HttpDownloadFile(File file) {
+        mFile = file;
+        mPartFile = new File(file.getPath() + SUFFIX_PART);
+        mInfoFile = new File(mPartFile.getPath() + SUFFIX_INFO);
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    File getPartFile() {
+        return mPartFile;
+    }
+
+    /**
+     * 一時ファイルの先頭から 受信データを書き込む
+     * @param is 入力ストリーム
+     * @param expectedLength 受信するサイズ。分かっている場合は 一時ファイルの領域を事前に確保する。不明な場合は -1
+     * @return 書き込んだバイト数
+     */
+    long write(InputStream is, long expectedLength) throws InterruptedException, IOException, SecurityException {
+        return write(is, 0, expectedLength);
+    }
+
+    /**
+     * 一時ファイルの 指定位置から 受信データを書き込む。指定位置以降の 既存のデータは破棄される
+     * @param is 入力ストリーム
+     * @param offset 書き込み開始位置
+     * @param totalLength 完成時のファイルサイズ。分かっている場合は 一時ファイルの領域を事前に確保する。不明な場合は -1
+     * @return 書き込んだバイト数
+     */
+    long write(InputStream is, long offset, long totalLength) throws InterruptedException, IOException, SecurityException {
+        File parent = mPartFile.getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+
+        try (RandomAccessFile raf = new RandomAccessFile(mPartFile, "rw");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > offset) channel.truncate(offset);
+            // 事前に ファイルサイズを確保しておく (断片化と 書き込み毎のサイズ拡張を避ける)
+            if (totalLength > offset) raf.setLength(totalLength);
+
+            ChannelWriter writer = new ChannelWriter(channel, offset);
+            try {
+                writer.write(is);
+            } finally {
+                // 事前確保した領域のうち 書き込まれなかった部分は切り捨てる
+                channel.truncate(offset + writer.getWritten());
+            }
+            // 途中で切断された場合に、不完全なファイルを完成扱いにしない
+            if (totalLength > 0 && offset + writer.getWritten() != totalLength) throw new EOFException("unexpected end of stream");
+            return writer.getWritten();
+        }
+    }
+
+    /**
+     * 一時ファイルの続きから 受信を再開できる場合、その位置を返す
+     * @param url 取得元URL
+     * @return 再開位置。再開できない場合は 0
+     */
+    long getResumeOffset(String url) {
+        if (getResumeValidator(url) == null) return 0;
+        return mPartFile.length();
+    }
+
+    /**
+     * 一時ファイルの取得元の 検証用の値(If-Rangeに指定する値)を返す
+     * @param url 取得元URL
+     * @return ETagまたは Last-Modified。一時ファイルが 指定URLのものでない場合は null
+     */
+    String getResumeValidator(String url) {
+        if (!mPartFile.exists() || mPartFile.length() <= 0) return null;
+        Properties info = loadInfo();
+        if (info == null || url == null || !url.equals(info.getProperty(KEY_URL))) return null;
+
+        String etag = info.getProperty(KEY_ETAG);
+        if (etag != null) return etag;
+        return info.getProperty(KEY_LAST_MODIFIED);
+    }
+
+    /**
+     * 一時ファイルの取得元を 管理ファイルに記録する
+     * 弱いETag(W/～)は If-Rangeに使用できないので 記録しない
+     * 検証用の値が ひとつもない場合は 再開できないので、管理ファイルを削除する
+     */
+    void saveResumeInfo(String url, String etag, String lastModified) throws IOException {
+        if (etag != null && etag.startsWith("W/")) etag = null;
+        if (url == null || (etag == null && lastModified == null)) {
+            clearResumeInfo();
+            return;
+        }
+
+        Properties info = new Properties();
+        info.setProperty(KEY_URL, url);
+        if (etag != null) info.setProperty(KEY_ETAG, etag);
+        if (lastModified != null) info.setProperty(KEY_LAST_MODIFIED, lastModified);
+        File parent = mInfoFile.getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+        try (OutputStream outStream = new FileOutputStream(mInfoFile)) {
+            info.store(outStream, null);
+        }
+    }
+
+    void clearResumeInfo() {
+        if (mInfoFile.exists()) mInfoFile.delete();
+    }
+
+    /**
+     * 受信完了した一時ファイルを 出力先ファイルに置き換える
+     */
+    void commit() throws IOException {
+        clearResumeInfo();
+        // 同一ディレクトリ内の renameなので 置き換えは atomicに行われる
+        if (mPartFile.renameTo(mFile)) return;
+
+        // renameで 既存ファイルを置き換えられない環境向け
+        if (mFile.exists() && !mFile.delete()) throw new IOException("cannot replace " + mFile);
+        if (!mPartFile.renameTo(mFile)) throw new IOException("cannot rename " + mPartFile);
+    }
+
+    /**
+     * 一時ファイルを破棄する
+     */
+    void discard() {
+        clearResumeInfo();
+        if (mPartFile.exists()) mPartFile.delete();
+    }
+
+    private Properties loadInfo() {
+        if (!mInfoFile.exists()) return null;
+        try (InputStream inStream = new FileInputStream(mInfoFile)) {
+            Properties info = new Properties();
+            info.load(inStream);
+            return info;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * 入力ストリームの内容を FileChannelの 指定位置から書き込むクラス
+     * 受信に失敗した場合も、それまでに受信したデータは書き込んでおく
+     * FileChannelへの書き込みは 位置指定で行うので、複数のスレッドから 同じFileChannelの異なる範囲に書き込める
+     */
+    static class ChannelWriter {
+        private final FileChannel mChannel;
+        private final long mPosition;
+        private long mWritten = 0;
+
+        ChannelWriter(FileChannel channel, long position) {
+            mChannel = channel;
+            mPosition = position;
+        }
+
+        // 書き込んだバイト数を返す
+        long getWritten() {
+            return mWritten;
+        }
+
+        void write(InputStream is) throws InterruptedException, IOException {
+            ReadableByteChannel inChannel = Channels.newChannel(is);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(DIRECT_BUFF_SIZE);
+            boolean reading = false;
+            try {
+                boolean eof = false;
+                while (!eof) {
+                    // バッファが一杯になるまで読み込んでから、まとめて書き込む
+                    reading = true;
+                    while (buffer.hasRemaining()) {
+                        if (inChannel.read(buffer) == -1) {
+                            eof = true;
+                            break;
+                        }
+                    }
+                    reading = false;
+                    flush(buffer);
+                    // 割り込みのチェック
+                    if (Thread.interrupted()) throw new InterruptedException();
+                }
+            } finally {
+                // 受信に失敗した場合、バッファに残っている 受信済みのデータを書き込む
+                if (reading && buffer.position() > 0) flush(buffer);
+            }
+        }
+
+        private void flush(ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                mWritten += mChannel.write(buffer, mPosition + mWritten);
+            }
+            buffer.clear();
+        }
+    }
+
+}
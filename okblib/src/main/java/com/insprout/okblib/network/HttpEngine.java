@@ -0,0 +1,63 @@
+package com.insprout.okblib.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * HttpRequestの 通信部分(接続, 送信, 受信)を行うエンジン
+ * HttpRequestは 名前解決, リクエストヘッダ, request bodyの作成, リトライ, リダイレクト, キャッシュ, cookie, 圧縮の展開等を行い、
+ * 1回分の送受信のみを エンジンに依頼する。
+ * 既定のエンジンは HttpUrlConnectionEngine。HttpRequest.setEngine()/setDefaultEngine()で 他のエンジンに切り替えられる
+ *
+ * 通信エラーは IOExceptionで返す。HttpRequestが 例外の種類(SocketTimeoutException, EOFException等)から
+ * status codeへの変換や リトライの判定を行うので、下位の例外は そのまま返すこと
+ */
+
+public interface HttpEngine {
+
+    /**
+     * 1回分の 送受信を作成する (まだ接続は行わない)
+     * @param request 送信内容
+     * @return 送受信
+     */
+    Exchange newExchange(HttpEngineRequest request) throws IOException;
+
+
+    /**
+     * 1回分の 送受信
+     * HttpRequestからは connect(), getRequestBody()(bodyがある場合のみ), getResponseStatus(), getResponseHeaders(),
+     * getResponseBody()の順に呼び出され、最後に 必ず release()が呼び出される。
+     * cancel()のみ 別のスレッドから呼び出される
+     */
+    interface Exchange {
+
+        // 接続する (TLSのハンドシェイクを含む)
+        void connect() throws IOException;
+
+        // keep-alive接続を再利用した場合は true。接続後に呼び出される。再利用したかを判別できない場合は false
+        boolean isReusedConnection();
+
+        // request bodyの出力先。HttpRequestが書き込んだ後に closeする
+        OutputStream getRequestBody() throws IOException;
+
+        // http statusを返す。レスポンスヘッダまでを受信する
+        int getResponseStatus() throws IOException;
+
+        // レスポンスヘッダ (ステータス行は含まない)
+        HttpHeaders getResponseHeaders() throws IOException;
+
+        // 通信上の(展開前の) レスポンスbody。bodyがない場合は null
+        InputStream getResponseBody() throws IOException;
+
+        // 接続を切断して ブロックしている読み書きを終了させる
+        void cancel();
+
+        /**
+         * 送受信の終了
+         * @param reusable レスポンスを最後まで読み切り、接続を再利用できる場合は true
+         */
+        void release(boolean reusable);
+    }
+
+}
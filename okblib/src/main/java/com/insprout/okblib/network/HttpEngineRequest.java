@@ -0,0 +1,97 @@
+package com.insprout.okblib.network;
+
+import java.net.URL;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * HttpEngineに渡す 1回分の送信内容
+ * HttpRequestの設定から リダイレクト, 名前解決, キャッシュの確認等を反映して作成する。
+ * request bodyは HttpRequestが Exchange.getRequestBody()に書き込むので、エンジンには バイト数のみを渡す
+ */
+
+public final class HttpEngineRequest {
+    private final String mMethod;
+    private final URL mUrl;
+    private final String mHostname;
+    private final HttpHeaders mHeaders;
+    private final boolean mHasBody;
+    private final long mContentLength;
+    private final int mConnectTimeoutMilliSec;
+    private final int mReadTimeoutMilliSec;
+    private final boolean mKeepAlive;
+    private final SSLSocketFactory mSslSocketFactory;
+    private final HostnameVerifier mHostnameVerifier;
+
+
+    HttpEngineRequest(String method, URL url, String hostname, HttpHeaders headers,
+                      HttpRequestBody requestBody, int connectTimeoutMilliSec, int readTimeoutMilliSec, boolean keepAlive,
+                      SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier) {
+        mMethod = method;
+        mUrl = url;
+        mHostname = hostname;
+        mHeaders = headers;
+        mHasBody = (requestBody != null);
+        mContentLength = (requestBody != null ? requestBody.getContentLength() : 0);
+        mConnectTimeoutMilliSec = connectTimeoutMilliSec;
+        mReadTimeoutMilliSec = readTimeoutMilliSec;
+        mKeepAlive = keepAlive;
+        mSslSocketFactory = sslSocketFactory;
+        mHostnameVerifier = hostnameVerifier;
+    }
+
+    // httpメソッド ("GET", "POST"等)
+    public String getMethod() {
+        return mMethod;
+    }
+
+    // 接続先。HttpDnsで名前解決を行った場合は アドレスのURL
+    public URL getUrl() {
+        return mUrl;
+    }
+
+    // HttpDnsで名前解決を行った場合は 元のホスト名 (Hostヘッダは設定済み)。それ以外は null
+    public String getHostname() {
+        return mHostname;
+    }
+
+    // リクエストヘッダ (User-Agent, Authorization, Cookie, Accept-Encoding, Content-Type等を含む)
+    public HttpHeaders getHeaders() {
+        return mHeaders;
+    }
+
+    // request bodyを送信するか
+    public boolean hasBody() {
+        return mHasBody;
+    }
+
+    // request bodyのバイト数。不明な場合は -1 (chunked形式で送信する)
+    public long getContentLength() {
+        return mContentLength;
+    }
+
+    public int getConnectTimeout() {
+        return mConnectTimeoutMilliSec;
+    }
+
+    public int getReadTimeout() {
+        return mReadTimeoutMilliSec;
+    }
+
+    // keep-alive接続を使用するか。falseの場合は 送受信後に接続を閉じる
+    public boolean isKeepAlive() {
+        return mKeepAlive;
+    }
+
+    // https接続に使用する SSLSocketFactory。httpの場合は null
+    public SSLSocketFactory getSslSocketFactory() {
+        return mSslSocketFactory;
+    }
+
+    // https接続の ホスト名の検証。nullの場合は エンジンの既定の検証を行う
+    public HostnameVerifier getHostnameVerifier() {
+        return mHostnameVerifier;
+    }
+
+}
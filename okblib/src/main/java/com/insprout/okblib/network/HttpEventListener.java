@@ -0,0 +1,148 @@
+package com.insprout.okblib.network;
+
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * HttpRequestの 実行の各段階を通知するクラス
+ * 必要なメソッドのみを overrideして使用する。時刻は全て System.nanoTime()の値。
+ * 通知は リクエストを実行しているスレッド(TLSの完了は ハンドシェイクを行ったスレッド)で行われるので、
+ * 時間のかかる処理は行わないこと。
+ *
+ * 以下の制限がある
+ * ・dnsStart/dnsEndは HttpDnsを指定した場合のみ通知される (システムの名前解決は 接続に含まれる)
+ * ・secureConnectStart/secureConnectEndは HttpSslSocketFactoryを使用した https接続の場合のみ通知される
+ * ・分割ダウンロードの 範囲毎のリクエストは 通知されない
+ */
+
+public abstract class HttpEventListener {
+
+    /**
+     * リクエストの実行開始 (キャッシュの確認や リダイレクト, リトライを含む 全体の開始)
+     * @param request リクエスト
+     * @param nanoTime 時刻
+     */
+    public void callStart(HttpRequest request, long nanoTime) {
+    }
+
+    /**
+     * 名前解決の開始
+     * @param request リクエスト
+     * @param hostname ホスト名
+     * @param nanoTime 時刻
+     */
+    public void dnsStart(HttpRequest request, String hostname, long nanoTime) {
+    }
+
+    /**
+     * 名前解決の終了
+     * @param request リクエスト
+     * @param hostname ホスト名
+     * @param addresses 解決したアドレス。解決できなかった場合は null
+     * @param nanoTime 時刻
+     */
+    public void dnsEnd(HttpRequest request, String hostname, List<InetAddress> addresses, long nanoTime) {
+    }
+
+    /**
+     * 接続の開始
+     * @param request リクエスト
+     * @param url 接続先 (名前解決を行った場合は アドレスのURL)
+     * @param nanoTime 時刻
+     */
+    public void connectStart(HttpRequest request, URL url, long nanoTime) {
+    }
+
+    /**
+     * TLSのハンドシェイクの開始
+     * @param request リクエスト
+     * @param nanoTime 時刻
+     */
+    public void secureConnectStart(HttpRequest request, long nanoTime) {
+    }
+
+    /**
+     * TLSのハンドシェイクの終了
+     * @param request リクエスト
+     * @param resumed TLSセッションを再開した場合は true
+     * @param nanoTime 時刻
+     */
+    public void secureConnectEnd(HttpRequest request, boolean resumed, long nanoTime) {
+    }
+
+    /**
+     * 接続の終了 (TLSのハンドシェイクを含む)
+     * @param request リクエスト
+     * @param reused keep-alive接続を再利用した場合は true (判別できない場合は false。HttpUrlConnectionEngineでは https接続のみ判別できる)
+     * @param nanoTime 時刻
+     */
+    public void connectEnd(HttpRequest request, boolean reused, long nanoTime) {
+    }
+
+    /**
+     * リクエストヘッダの送信 (HttpEngineに 送信を要求した時点)
+     * @param request リクエスト
+     * @param nanoTime 時刻
+     */
+    public void requestHeadersEnd(HttpRequest request, long nanoTime) {
+    }
+
+    /**
+     * request bodyの送信の終了
+     * @param request リクエスト
+     * @param byteCount 送信したバイト数
+     * @param nanoTime 時刻
+     */
+    public void requestBodyEnd(HttpRequest request, long byteCount, long nanoTime) {
+    }
+
+    /**
+     * レスポンスの受信開始 (ステータス行と レスポンスヘッダを受信した時点)
+     * @param request リクエスト
+     * @param status http status
+     * @param nanoTime 時刻
+     */
+    public void responseHeadersEnd(HttpRequest request, int status, long nanoTime) {
+    }
+
+    /**
+     * レスポンスbodyの受信の終了
+     * @param request リクエスト
+     * @param receivedLength 通信上の(展開前の) バイト数
+     * @param decodedLength 展開後の バイト数
+     * @param nanoTime 時刻
+     */
+    public void responseBodyEnd(HttpRequest request, long receivedLength, long decodedLength, long nanoTime) {
+    }
+
+    /**
+     * リトライの決定 (待機の前に通知する)
+     * @param request リクエスト
+     * @param retryCount 何回目のリトライか (1から)
+     * @param delayMilliSec リトライまでの待機時間
+     * @param nanoTime 時刻
+     */
+    public void retry(HttpRequest request, int retryCount, long delayMilliSec, long nanoTime) {
+    }
+
+    /**
+     * リダイレクトの転送先への リクエスト
+     * @param request リクエスト
+     * @param status リダイレクトの http status
+     * @param location 転送先のURL
+     * @param nanoTime 時刻
+     */
+    public void redirect(HttpRequest request, int status, String location, long nanoTime) {
+    }
+
+    /**
+     * リクエストの実行終了
+     * @param request リクエスト
+     * @param response 結果 (通信エラーの場合も status codeで判別できる)
+     * @param nanoTime 時刻
+     */
+    public void callEnd(HttpRequest request, HttpResponse response, long nanoTime) {
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.insprout.okblib.network;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HttpParameterの queryString, x-www-form-urlencodedの エンコード処理
+ * URLEncoder.encode()と同じ結果を、中間の文字列を作成せずに バイト配列に直接書き込む。
+ * 書き込み先を指定しない場合は バイト数のみを数えるので、先に 必要なサイズを求めてから
+ * ちょうどの大きさの配列に 1度で書き込むことができる
+ */
+
+class HttpFormEncoder {
+    private final static byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+    // エンコードしない文字 (URLEncoderと同じく 英数字と . - * _)
+    private final static boolean[] SAFE_CHARS = new boolean[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) SAFE_CHARS[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) SAFE_CHARS[c] = true;
+        for (char c = '0'; c <= '9'; c++) SAFE_CHARS[c] = true;
+        SAFE_CHARS['.'] = true;
+        SAFE_CHARS['-'] = true;
+        SAFE_CHARS['*'] = true;
+        SAFE_CHARS['_'] = true;
+    }
+
+    private final static Map<String, Charset> sCharsets = new ConcurrentHashMap<>();
+
+
+    /**
+     * 文字コード名から Charsetを返す。1度取得したものは 保持して再利用する
+     * @param charsetName 文字コード名
+     * @return Charset。サポートされていない場合は null
+     */
+    static Charset getCharset(String charsetName) {
+        if (charsetName == null) return null;
+        Charset charset = sCharsets.get(charsetName);
+        if (charset == null) {
+            try {
+                charset = Charset.forName(charsetName);
+            } catch (IllegalArgumentException e) {
+                // IllegalCharsetNameException, UnsupportedCharsetException
+                return null;
+            }
+            sCharsets.put(charsetName, charset);
+        }
+        return charset;
+    }
+
+    /**
+     * パラメータを name=value&name=value... の形式で エンコードしたバイト列を返す
+     * @param params パラメータ
+     * @param charset 文字コード
+     * @return エンコードしたバイト列 (ASCII文字のみ)
+     */
+    static byte[] toBytes(List<HttpParameter> params, Charset charset) {
+        byte[] bytes = new byte[ encode(params, charset, null, 0) ];
+        encode(params, charset, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * パラメータを name=value&name=value... の形式で エンコードした文字列を返す
+     * @param params パラメータ
+     * @param charset 文字コード
+     * @return エンコードした文字列
+     */
+    static String toString(List<HttpParameter> params, Charset charset) {
+        return new String(toBytes(params, charset), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * パラメータを name=value&name=value... の形式で エンコードして書き込む。名前がカラのパラメータは 含めない
+     * @param params パラメータ
+     * @param charset 文字コード
+     * @param dest 書き込み先。nullの場合は バイト数のみを数える
+     * @param offset 書き込み開始位置
+     * @return 書き込んだ終了位置 (destが nullの場合は offset + バイト数)
+     */
+    static int encode(List<HttpParameter> params, Charset charset, byte[] dest, int offset) {
+        if (params == null) return offset;
+        int position = offset;
+        boolean first = true;
+        for (HttpParameter param : params) {
+            if (param == null) continue;
+            String name = param.getName();
+            // 名前がカラの場合は スキップする
+            if (name == null || name.isEmpty()) continue;
+            if (!first) position = put(dest, position, '&');
+            first = false;
+            position = encode(name, charset, dest, position);
+            position = put(dest, position, '=');
+            position = encode(param.getValue(), charset, dest, position);
+        }
+        return position;
+    }
+
+    /**
+     * 文字列を エンコードして書き込む
+     * @param text 文字列
+     * @param charset 文字コード
+     * @param dest 書き込み先。nullの場合は バイト数のみを数える
+     * @param offset 書き込み開始位置
+     * @return 書き込んだ終了位置 (destが nullの場合は offset + バイト数)
+     */
+    static int encode(String text, Charset charset, byte[] dest, int offset) {
+        if (text == null) return offset;
+        boolean utf8 = StandardCharsets.UTF_8.equals(charset);
+        int position = offset;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c < 128 && SAFE_CHARS[c]) {
+                position = put(dest, position, c);
+                i++;
+            } else if (c == ' ') {
+                position = put(dest, position, '+');
+                i++;
+            } else if (utf8) {
+                // UTF-8は バイト列を作成せずに 文字コードから直接変換する
+                if (c < 0x80) {
+                    position = putEscaped(dest, position, c);
+                } else if (c < 0x800) {
+                    position = putEscaped(dest, position, 0xC0 | (c >> 6));
+                    position = putEscaped(dest, position, 0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    position = putEscaped(dest, position, 0xF0 | (codePoint >> 18));
+                    position = putEscaped(dest, position, 0x80 | ((codePoint >> 12) & 0x3F));
+                    position = putEscaped(dest, position, 0x80 | ((codePoint >> 6) & 0x3F));
+                    position = putEscaped(dest, position, 0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // 対になっていないサロゲートは String.getBytes()と同じく '?'に置き換える
+                    position = putEscaped(dest, position, '?');
+                } else {
+                    position = putEscaped(dest, position, 0xE0 | (c >> 12));
+                    position = putEscaped(dest, position, 0x80 | ((c >> 6) & 0x3F));
+                    position = putEscaped(dest, position, 0x80 | (c & 0x3F));
+                }
+                i++;
+            } else {
+                // その他の文字コードは URLEncoderと同じく エンコードが必要な文字の連続を まとめて変換する
+                int end = i + 1;
+                while (end < length) {
+                    char next = text.charAt(end);
+                    if ((next < 128 && SAFE_CHARS[next]) || next == ' ') break;
+                    end++;
+                }
+                for (byte b : text.substring(i, end).getBytes(charset)) {
+                    position = putEscaped(dest, position, b & 0xFF);
+                }
+                i = end;
+            }
+        }
+        return position;
+    }
+
+    private static int put(byte[] dest, int position, int b) {
+        if (dest != null) dest[position] = (byte)b;
+        return position + 1;
+    }
+
+    // %XX の形式で書き込む
+    private static int putEscaped(byte[] dest, int position, int b) {
+        if (dest != null) {
+            dest[position] = '%';
+            dest[position + 1] = HEX_DIGITS[(b >> 4) & 0x0F];
+            dest[position + 2] = HEX_DIGITS[b & 0x0F];
+        }
+        return position + 3;
+    }
+
+}
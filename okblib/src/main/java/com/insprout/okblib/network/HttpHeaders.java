@@ -0,0 +1,196 @@
+package com.insprout.okblib.network;
+
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HttpRequestクラスで使用する リクエスト/レスポンスヘッダの格納クラス
+ * ヘッダ名と値を 受信した順に 1つの配列に交互に保持する。同じ名前のヘッダが複数ある場合も 全ての値を保持する。
+ * ヘッダ名は 大文字/小文字を区別せずに検索する。
+ * Content-Length, Date, Cache-Controlの値は 最初に参照された時点で変換し、その結果を保持する
+ */
+
+public class HttpHeaders {
+    public final static String CONTENT_LENGTH = "Content-Length";
+    public final static String DATE = "Date";
+    public final static String CACHE_CONTROL = "Cache-Control";
+
+    private final static long UNPARSED = Long.MIN_VALUE;
+    private final static HttpHeaders EMPTY = new HttpHeaders(new String[0]);
+
+    private final String[] mNamesAndValues;                 // ヘッダ名, 値, ヘッダ名, 値, ...
+    private volatile long mContentLength = UNPARSED;
+    private volatile long mDate = UNPARSED;
+    private HttpCacheControl mCacheControl = null;
+
+
+    private HttpHeaders(String[] namesAndValues) {
+        mNamesAndValues = namesAndValues;
+    }
+
+    public static HttpHeaders empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 接続から レスポンスヘッダを取得する
+     * getHeaderFields()と異なり Mapを作成せず、受信した順序のまま 全ての値を取得する
+     * @param connection レスポンスを受信した接続
+     * @return レスポンスヘッダ (ステータス行は含まない)
+     */
+    static HttpHeaders of(URLConnection connection) {
+        Builder builder = new Builder();
+        for (int i = 0; ; i++) {
+            String name = connection.getHeaderFieldKey(i);
+            String value = connection.getHeaderField(i);
+            if (name == null && value == null) break;
+            // ステータス行(キーがnull)は 含めない
+            if (name != null) builder.add(name, value);
+        }
+        return builder.build();
+    }
+
+    // ヘッダの数 (同じ名前のヘッダも それぞれ数える)
+    public int size() {
+        return mNamesAndValues.length / 2;
+    }
+
+    public String name(int index) {
+        return mNamesAndValues[index * 2];
+    }
+
+    public String value(int index) {
+        return mNamesAndValues[index * 2 + 1];
+    }
+
+    /**
+     * 指定された名前の 最初のヘッダの値を返す
+     * @param name ヘッダ名 (大文字/小文字は区別しない)
+     * @return ヘッダの値。ない場合は null
+     */
+    public String get(String name) {
+        if (name == null) return null;
+        for (int i = 0; i < mNamesAndValues.length; i += 2) {
+            if (name.equalsIgnoreCase(mNamesAndValues[i])) return mNamesAndValues[i + 1];
+        }
+        return null;
+    }
+
+    /**
+     * 指定された名前の 全てのヘッダの値を 受信した順に返す
+     * @param name ヘッダ名 (大文字/小文字は区別しない)
+     * @return ヘッダの値。ない場合は カラのリスト
+     */
+    public List<String> getAll(String name) {
+        List<String> values = null;
+        if (name != null) {
+            for (int i = 0; i < mNamesAndValues.length; i += 2) {
+                if (!name.equalsIgnoreCase(mNamesAndValues[i])) continue;
+                if (values == null) values = new ArrayList<>(2);
+                values.add(mNamesAndValues[i + 1]);
+            }
+        }
+        return (values != null ? Collections.unmodifiableList(values) : Collections.<String>emptyList());
+    }
+
+    // Content-Lengthの値。ない場合や 変換できない場合は -1
+    public long getContentLength() {
+        if (mContentLength == UNPARSED) {
+            long length = -1;
+            String value = get(CONTENT_LENGTH);
+            if (value != null) {
+                try {
+                    length = Long.parseLong(value.trim());
+                } catch (NumberFormatException e) {
+                    length = -1;
+                }
+            }
+            mContentLength = length;
+        }
+        return mContentLength;
+    }
+
+    // Dateの値 (1970/1/1からの ミリ秒)。ない場合や 変換できない場合は -1
+    public long getDate() {
+        if (mDate == UNPARSED) mDate = HttpDate.parse(get(DATE));
+        return mDate;
+    }
+
+    /**
+     * 日時を表すヘッダ(Expires, Last-Modified等)の値を ミリ秒に変換して返す
+     * @param name ヘッダ名 (大文字/小文字は区別しない)
+     * @return 1970/1/1からの ミリ秒。ない場合や 変換できない場合は -1
+     */
+    public long getDate(String name) {
+        if (DATE.equalsIgnoreCase(name)) return getDate();
+        return HttpDate.parse(get(name));
+    }
+
+    // Cache-Controlの解析結果。複数ある場合は 全てを連結したものとして扱う
+    HttpCacheControl getCacheControl() {
+        if (mCacheControl == null) {
+            List<String> values = getAll(CACHE_CONTROL);
+            String value = null;
+            if (values.size() == 1) {
+                value = values.get(0);
+            } else if (!values.isEmpty()) {
+                StringBuilder builder = new StringBuilder();
+                for (String v : values) {
+                    if (builder.length() > 0) builder.append(',');
+                    builder.append(v);
+                }
+                value = builder.toString();
+            }
+            mCacheControl = HttpCacheControl.parse(value);
+        }
+        return mCacheControl;
+    }
+
+    public Builder newBuilder() {
+        Builder builder = new Builder();
+        builder.mNamesAndValues.addAll(Arrays.asList(mNamesAndValues));
+        return builder;
+    }
+
+
+    /**
+     * HttpHeadersの 作成用クラス
+     */
+    public static class Builder {
+        private final List<String> mNamesAndValues = new ArrayList<>(20);
+
+        // ヘッダを追加する。同じ名前のヘッダがあっても 置き換えない
+        public Builder add(String name, String value) {
+            if (name == null) throw new IllegalArgumentException("name == null");
+            mNamesAndValues.add(name);
+            mNamesAndValues.add(value != null ? value : "");
+            return this;
+        }
+
+        // 同じ名前のヘッダを全て削除してから 追加する
+        public Builder set(String name, String value) {
+            removeAll(name);
+            return add(name, value);
+        }
+
+        // 同じ名前(大文字/小文字は区別しない)のヘッダを 全て削除する
+        public Builder removeAll(String name) {
+            for (int i = mNamesAndValues.size() - 2; i >= 0; i -= 2) {
+                if (mNamesAndValues.get(i).equalsIgnoreCase(name)) {
+                    mNamesAndValues.remove(i + 1);
+                    mNamesAndValues.remove(i);
+                }
+            }
+            return this;
+        }
+
+        public HttpHeaders build() {
+            if (mNamesAndValues.isEmpty()) return EMPTY;
+            return new HttpHeaders(mNamesAndValues.toArray(new String[mNamesAndValues.size()]));
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.insprout.okblib.network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * hostsファイルのように ホスト名とアドレスの対応を 固定で指定する名前解決
+ * 通信環境によらない 動作確認や、特定のホストの接続先を差し替える場合に使用する
+ */
+
+public class HttpHostsDns implements HttpDns {
+    private final Map<String, List<InetAddress>> mHosts = new HashMap<>();
+    private final HttpDns mFallback;
+
+
+    /**
+     * @param fallback 登録されていないホスト名の 名前解決。nullの場合は UnknownHostExceptionとする
+     */
+    public HttpHostsDns(HttpDns fallback) {
+        mFallback = fallback;
+    }
+
+    /**
+     * ホスト名と アドレスの対応を登録する
+     * @param hostname ホスト名
+     * @param addresses アドレス ("192.0.2.1"等の IPアドレス表記)
+     * @return このインスタンス
+     */
+    public synchronized HttpHostsDns put(String hostname, String... addresses) {
+        List<InetAddress> list = new ArrayList<>();
+        for (String address : addresses) {
+            try {
+                // IPアドレス表記の場合は 名前解決は行われない
+                list.add(InetAddress.getByName(address));
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("invalid address: " + address);
+            }
+        }
+        mHosts.put(hostname.toLowerCase(Locale.ENGLISH), Collections.unmodifiableList(list));
+        return this;
+    }
+
+    public synchronized HttpHostsDns remove(String hostname) {
+        mHosts.remove(hostname.toLowerCase(Locale.ENGLISH));
+        return this;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        List<InetAddress> addresses;
+        synchronized (this) {
+            addresses = mHosts.get(hostname.toLowerCase(Locale.ENGLISH));
+        }
+        if (addresses != null && !addresses.isEmpty()) return addresses;
+        if (mFallback == null) throw new UnknownHostException(hostname);
+        return mFallback.lookup(hostname);
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.insprout.okblib.network;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * HttpRequestクラスで使用する メモリキャッシュ
+ * GETリクエストの 小さいレスポンス(バイト配列)を 有効期間(TTL)の間 メモリに保持する。
+ * 保持するバイト数の合計が 上限を超えた場合は、使用されていない順に破棄する。
+ * キャッシュから返すレスポンスは 同じバイト配列を共有するので、呼び出し側で 内容を変更しないこと
+ */
+
+public class HttpMemoryCache {
+    private final static int ENTRY_OVERHEAD = 64;               // 1件あたりの 管理用のバイト数(概算)
+    private final static int MAX_ENTRY_RATIO = 4;               // 1件のサイズは 上限の 1/4まで
+
+    private final long mMaxBytes;
+    private final long mDefaultTtlMilliSec;
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mBytes = 0;
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+    private long mExpiredCount = 0;
+    private long mEvictionCount = 0;
+
+
+    /**
+     * @param maxBytes 保持するバイト数の上限
+     * @param defaultTtlMilliSec 有効期間(ミリ秒)。リクエスト毎に 指定されなかった場合に使用する
+     */
+    public HttpMemoryCache(long maxBytes, long defaultTtlMilliSec) {
+        mMaxBytes = maxBytes;
+        mDefaultTtlMilliSec = defaultTtlMilliSec;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public long getDefaultTtlMilliSec() {
+        return mDefaultTtlMilliSec;
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized int getCount() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    // キャッシュになかった回数 (有効期間切れを含む)
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    // 有効期間切れで 破棄した件数
+    public synchronized long getExpiredCount() {
+        return mExpiredCount;
+    }
+
+    // 上限サイズを超えたために 破棄した件数
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    // ヒット率 (0.0～1.0)。まだ使用されていない場合は 0
+    public synchronized double getHitRate() {
+        long total = mHitCount + mMissCount;
+        return (total > 0 ? (double)mHitCount / total : 0);
+    }
+
+    public synchronized void resetStats() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mExpiredCount = 0;
+        mEvictionCount = 0;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    // 指定したキーの キャッシュを破棄する
+    public synchronized void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) mBytes -= entry.mBytes;
+    }
+
+
+    /**
+     * キャッシュを取得する
+     * @param key キャッシュのキー (HttpRequest.getCacheKey())
+     * @return レスポンス。保持していない場合や 有効期間を過ぎている場合は null
+     */
+    synchronized HttpResponse get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        if (entry.mExpireTime <= System.currentTimeMillis()) {
+            remove(key);
+            mExpiredCount++;
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+
+        HttpResponse response = new HttpResponse(entry.mStatus, entry.mBody, entry.mHeaders, 0, entry.mBody.length);
+        response.setFromCache(true);
+        return response;
+    }
+
+    /**
+     * レスポンスを保持する。200以外や no-storeのもの、大きすぎるものは 保持しない
+     * @param key キャッシュのキー (HttpRequest.getCacheKey())
+     * @param response レスポンス
+     * @param ttlMilliSec 有効期間(ミリ秒)。負の値の場合は デフォルトの有効期間
+     */
+    synchronized void put(String key, HttpResponse response, long ttlMilliSec) {
+        if (response.getHttpStatus() != 200 || response.getResponseBytes() == null) return;
+        if (response.getHeaders().getCacheControl().isNoStore()) return;
+
+        long ttl = (ttlMilliSec >= 0 ? ttlMilliSec : mDefaultTtlMilliSec);
+        if (ttl <= 0) return;
+
+        Entry entry = new Entry(response, System.currentTimeMillis() + ttl, estimateBytes(key, response));
+        if (entry.mBytes > mMaxBytes / MAX_ENTRY_RATIO) return;
+
+        remove(key);
+        mEntries.put(key, entry);
+        mBytes += entry.mBytes;
+        trimToSize();
+    }
+
+
+    // 上限サイズを超えている場合は 有効期間切れのもの、使用されていないものの順に破棄する
+    private void trimToSize() {
+        if (mBytes <= mMaxBytes) return;
+
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.mExpireTime <= now) {
+                mBytes -= entry.mBytes;
+                mExpiredCount++;
+                iterator.remove();
+            }
+        }
+        iterator = mEntries.values().iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext()) {
+            mBytes -= iterator.next().mBytes;
+            mEvictionCount++;
+            iterator.remove();
+        }
+    }
+
+    // 保持に必要なバイト数(概算)。文字列は 1文字 2バイトとして数える
+    private static long estimateBytes(String key, HttpResponse response) {
+        long bytes = ENTRY_OVERHEAD + key.length() * 2L + response.getResponseBytes().length;
+        HttpHeaders headers = response.getHeaders();
+        for (int i = 0; i < headers.size(); i++) {
+            bytes += (headers.name(i).length() + headers.value(i).length()) * 2L;
+        }
+        return bytes;
+    }
+
+
+    private static class Entry {
+        private final int mStatus;
+        private final byte[] mBody;
+        private final HttpHeaders mHeaders;
+        private final long mExpireTime;
+        private final long mBytes;
+
+        private Entry(HttpResponse response, long expireTime, long bytes) {
+            mStatus = response.getHttpStatus();
+            mBody = response.getResponseBytes();
+            mHeaders = response.getHeaders();
+            mExpireTime = expireTime;
+            mBytes = bytes;
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.insprout.okblib.network;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * HttpRequestクラスで使用する multipart/form-dataの 送信データ
+ * バウンダリーや パートヘッダ等の区切り部分は 作成時に バイト列の並び(セグメント)として用意しておき、
+ * 送信時は 各セグメントを 順にそのまま書き出す。
+ * form dataの値や ファイル, HttpRequestBodyの内容は 送信時に読み込むので、保持するメモリは 区切り部分の大きさのみとなる
+ */
+
+class HttpMultipartBody extends HttpRequestBody {
+    private final static int BUFF_SIZE = 16 * 1024;
+    private final static byte[] CRLF = { '\r', '\n' };
+
+    private final String mBoundary;
+    private final List<Segment> mSegments = new ArrayList<>();
+    private final long mContentLength;
+    private final boolean mRepeatable;
+
+
+    /**
+     * @param params 送信するパラメータ (Fileを含む)
+     * @param charsetName パートヘッダと form dataの値の 文字コード
+     */
+    HttpMultipartBody(List<HttpParameter> params, String charsetName) {
+        // バウンダリー文字列生成
+        mBoundary = UUID.randomUUID().toString();
+        Charset charset = HttpFormEncoder.getCharset(charsetName);
+        if (charset == null) charset = StandardCharsets.UTF_8;
+
+        // 全ての form dataパートで共通の パートヘッダ
+        byte[] textPartHeader = ("Content-Type: text/plain; charset=" + charset.name() + "\r\n"
+                + "Content-Transfer-Encoding: 8bit\r\n\r\n").getBytes(charset);
+        // form dataパートを先に、File(HttpRequestBody)パートを後に 送信する
+        for (boolean filePart : new boolean[] { false, true }) {
+            if (params == null) break;
+            for (HttpParameter param : params) {
+                if (param == null || (param.hasFile() || param.hasBody()) != filePart) continue;
+                // keyが指定されているか確認する
+                String key = param.getName();
+                if (key == null || key.isEmpty()) continue;
+
+                if (filePart) {
+                    String fileName = param.getFileName();
+                    String header = "--" + mBoundary + "\r\n"
+                            + "Content-Disposition: form-data; name=\"" + key + "\""
+                            + (fileName != null ? "; filename=\"" + fileName + "\"" : "") + "\r\n"
+                            + "Content-Type: " + param.getMimeType() + "\r\n"
+                            + "Content-Transfer-Encoding: binary\r\n\r\n";
+                    mSegments.add(new BytesSegment(header.getBytes(charset)));
+                    mSegments.add(param.hasBody() ? new BodySegment(param.getBody()) : new FileSegment(param.getFile()));
+                } else {
+                    String header = "--" + mBoundary + "\r\n"
+                            + "Content-Disposition: form-data; name=\"" + key + "\"\r\n";
+                    mSegments.add(new BytesSegment(header.getBytes(charset)));
+                    mSegments.add(new BytesSegment(textPartHeader));
+                    mSegments.add(new TextSegment(param.getValue(), charset));
+                }
+                mSegments.add(new BytesSegment(CRLF));
+            }
+        }
+        // 送信するパートが 何もなければ、終了バウンダリーも送信しない
+        if (!mSegments.isEmpty()) mSegments.add(new BytesSegment(("--" + mBoundary + "--\r\n").getBytes(charset)));
+
+        long length = 0;
+        boolean repeatable = true;
+        for (Segment segment : mSegments) {
+            long segmentLength = segment.getLength();
+            if (length >= 0) length = (segmentLength >= 0 ? length + segmentLength : -1);
+            if (segment instanceof BodySegment) repeatable &= ((BodySegment)segment).mBody.isRepeatable();
+        }
+        mContentLength = length;
+        mRepeatable = repeatable;
+    }
+
+    // マルチパート用 Content-Typeを返す
+    @Override
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + mBoundary;
+    }
+
+    // multipartデータのサイズを返す。サイズが不明なパートが含まれる場合は -1を返す
+    @Override
+    public long getContentLength() {
+        return mContentLength;
+    }
+
+    // 1度しか送信できない HttpRequestBodyを含む場合は false
+    @Override
+    public boolean isRepeatable() {
+        return mRepeatable;
+    }
+
+    // multipartデータの 出力を行う
+    // OutputStreamの close処理は呼び出し側で行う
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException, InterruptedException {
+        // ファイルの読み込み用バッファは 全てのFileパートで共用する
+        byte[] buffer = null;
+        for (Segment segment : mSegments) {
+            if (segment instanceof FileSegment && buffer == null) buffer = new byte[ BUFF_SIZE ];
+            segment.writeTo(outStream, buffer);
+        }
+    }
+
+
+    // 送信データの 1区間
+    private interface Segment {
+
+        // バイト数。不明な場合は -1
+        long getLength();
+
+        void writeTo(OutputStream outStream, byte[] buffer) throws IOException, InterruptedException;
+    }
+
+    // 作成済みの バイト列 (バウンダリー, パートヘッダ)
+    private static class BytesSegment implements Segment {
+        private final byte[] mBytes;
+
+        private BytesSegment(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        @Override
+        public long getLength() {
+            return mBytes.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream, byte[] buffer) throws IOException {
+            outStream.write(mBytes);
+        }
+    }
+
+    // form dataの値。送信時に バイト列に変換する
+    private static class TextSegment implements Segment {
+        private final String mText;
+        private final Charset mCharset;
+        private final long mLength;
+
+        private TextSegment(String text, Charset charset) {
+            mText = (text != null ? text : "");
+            mCharset = charset;
+            mLength = (StandardCharsets.UTF_8.equals(charset) ? utf8Length(mText) : mText.getBytes(charset).length);
+        }
+
+        @Override
+        public long getLength() {
+            return mLength;
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream, byte[] buffer) throws IOException {
+            outStream.write(mText.getBytes(mCharset));
+        }
+
+        // UTF-8に変換した場合の バイト数。対になっていないサロゲートは String.getBytes()と同じく '?'(1バイト)とする
+        private static long utf8Length(String text) {
+            long length = 0;
+            int count = text.length();
+            for (int i = 0; i < count; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    length += 1;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    length += 1;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+    }
+
+    // HttpRequestBodyの内容
+    private static class BodySegment implements Segment {
+        private final HttpRequestBody mBody;
+
+        private BodySegment(HttpRequestBody body) {
+            mBody = body;
+        }
+
+        @Override
+        public long getLength() {
+            return mBody.getContentLength();
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream, byte[] buffer) throws IOException, InterruptedException {
+            mBody.writeTo(outStream);
+        }
+    }
+
+    // ファイルの内容。送信時に 読み込みながら書き出す
+    private static class FileSegment implements Segment {
+        private final File mFile;
+        private final long mLength;
+
+        private FileSegment(File file) {
+            mFile = file;
+            // 通常のファイル以外(名前付きパイプ等)は サイズが分からないので -1とする
+            mLength = (file.isFile() ? file.length() : -1);
+        }
+
+        @Override
+        public long getLength() {
+            return mLength;
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream, byte[] buffer) throws IOException, InterruptedException {
+            // 送信用ファイルについては、ここで try-with-resourceでcloseする
+            try (InputStream inDataStream = new FileInputStream(mFile)) {
+                int count;
+                while ((count = inDataStream.read(buffer, 0, buffer.length)) != -1) {
+                    outStream.write(buffer, 0, count);
+                    // 割り込みのチェック (sleep()はせずに フラグのみ確認する)
+                    if (Thread.interrupted()) throw new InterruptedException();
+                }
+            }
+        }
+    }
+
+}
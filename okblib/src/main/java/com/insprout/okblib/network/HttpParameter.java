@@ -5,6 +5,8 @@ import android.webkit.MimeTypeMap;
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -20,6 +22,7 @@ public class HttpParameter {
     private String mValue = "";
     private File mFile = null;
     private String mMimeType = null;
+    private HttpRequestBody mBody = null;
 
 
     public HttpParameter(String name, String value) {
@@ -39,6 +42,17 @@ public class HttpParameter {
         mMimeType = mimeType;
     }
 
+    /**
+     * multipartの 1パートとして InputStream, ByteBuffer, content Uri等の内容を 送信するパラメータ
+     * @param name パラメータ名
+     * @param body 送信する内容。Content-Typeは body.getContentType()
+     * @param fileName パートの filename。指定しない場合は null
+     */
+    public HttpParameter(String name, HttpRequestBody body, String fileName) {
+        mName = name;
+        setValue(body, fileName);
+    }
+
     public String getName() {
         return mName;
     }
@@ -50,11 +64,20 @@ public class HttpParameter {
     public void setValue(String value) {
         mValue = (value != null ? value : "");
         mFile = null;
+        mBody = null;
     }
 
     public void setValue(File value) {
         mValue = (value != null ? value.getPath() : "");
         mFile = value;
+        mBody = null;
+    }
+
+    public void setValue(HttpRequestBody body, String fileName) {
+        mValue = (fileName != null ? fileName : "");
+        mFile = null;
+        mBody = body;
+        mMimeType = null;
     }
 
     public boolean hasFile() {
@@ -65,7 +88,23 @@ public class HttpParameter {
         return mFile;
     }
 
+    public boolean hasBody() {
+        return (mBody != null);
+    }
+
+    public HttpRequestBody getBody() {
+        return mBody;
+    }
+
+    // HttpRequestBodyの場合は 指定された filename。指定されていない場合は null
+    public String getFileName() {
+        if (mFile != null) return mFile.getName();
+        if (mBody != null && !mValue.isEmpty()) return mValue;
+        return null;
+    }
+
     public String getMimeType() {
+        if (mBody != null) return mBody.getContentType();
         if (mFile == null) return null;
         if (mMimeType != null) return mMimeType;
         return getMimeTypeFromExtension(mFile);
@@ -89,6 +128,8 @@ public class HttpParameter {
 
     public static String toQueryString(List<HttpParameter> params, String charset) {
         if (params == null) return "";
+        Charset cs = HttpFormEncoder.getCharset(charset);
+        if (cs != null) return HttpFormEncoder.toString(params, cs);
 
         StringBuilder builder = new StringBuilder();
         int count = 0;
@@ -109,10 +150,14 @@ public class HttpParameter {
 
     public static String toQueryString(String name, String value, String charset) {
         if (name == null || name.isEmpty()) return "";
-        return encode(name, charset) + "=" + encode(value, charset);
+        return toQueryString(Collections.singletonList(new HttpParameter(name, value)), charset);
     }
 
     public static byte[] getBytes(List<HttpParameter> params, String charset) {
+        // 中間の文字列を作成せずに 送信データを直接作成する
+        Charset cs = HttpFormEncoder.getCharset(charset);
+        if (cs != null) return HttpFormEncoder.toBytes(params, cs);
+
         String queryString = toQueryString(params, charset);
         // queryStringを エンコードして 送信データを作成
         try {
@@ -122,14 +167,16 @@ public class HttpParameter {
         }
     }
 
+    // Fileまたは HttpRequestBodyを含むか (multipartで送信する必要があるか)
     public static boolean hasFile(List<HttpParameter> params) {
         if (params == null) return false;
         for (HttpParameter param : params) {
-            if (param != null && param.hasFile()) return true;
+            if (param != null && (param.hasFile() || param.hasBody())) return true;
         }
         return false;
     }
 
+    // サポートされていない文字コードが指定された場合の エンコード
     private static String encode(String text, String charset) {
         if (text == null || text.isEmpty()) return "";
         try {
@@ -0,0 +1,65 @@
+package com.insprout.okblib.network;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HttpRequestクラスで使用する 恒久的なリダイレクト(301, 308)の転送先の記録
+ * 記録した URLへのリクエストは、リダイレクトを受け取らずに 転送先に直接行う。
+ * 件数が上限を超えた場合は 使用されていない順に破棄する
+ */
+
+class HttpRedirectCache {
+    private final static int MAX_ENTRIES = 256;
+
+    private final static LinkedHashMap<String, Redirect> sEntries = new LinkedHashMap<String, Redirect>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Redirect> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+
+    /**
+     * 記録されている転送先を 辿った URLを返す
+     * @param url リクエストURL (queryパラメータを含む)
+     * @param includeMovedPermanently 301の記録も使用するか。falseの場合は メソッドとbodyを引き継ぐ 308のみ使用する
+     * @param maxHops 辿る回数の上限
+     * @return 転送先のURL。記録がない場合は urlをそのまま返す
+     */
+    static String resolve(String url, boolean includeMovedPermanently, int maxHops) {
+        synchronized (sEntries) {
+            for (int i = 0; i < maxHops; i++) {
+                Redirect redirect = sEntries.get(url);
+                if (redirect == null || (redirect.mStatus == 301 && !includeMovedPermanently)) break;
+                url = redirect.mLocation;
+            }
+        }
+        return url;
+    }
+
+    static void put(String url, String location, int status) {
+        if (url.equals(location)) return;
+        synchronized (sEntries) {
+            sEntries.put(url, new Redirect(location, status));
+        }
+    }
+
+    static void clear() {
+        synchronized (sEntries) {
+            sEntries.clear();
+        }
+    }
+
+
+    private static class Redirect {
+        private final String mLocation;
+        private final int mStatus;
+
+        private Redirect(String location, int status) {
+            mLocation = location;
+            mStatus = status;
+        }
+    }
+
+}
@@ -1,50 +1,39 @@
 package com.insprout.okblib.network;
 
-import android.annotation.SuppressLint;
-import android.os.Build;
 import android.util.Base64;
-import android.webkit.CookieManager;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
+import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSession;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
+import javax.net.ssl.SSLSocketFactory;
 
 
 /**
@@ -56,6 +45,10 @@ public class HttpRequest {
 
     public final static String ENCODING = "UTF-8";
     private final static String RESPONSE_HEADER_LOCATION = "Location";
+    private final static String RESPONSE_HEADER_CONNECTION = "Connection";
+    private final static String RESPONSE_HEADER_CONTENT_RANGE = "Content-Range";
+    private final static String RESPONSE_HEADER_ETAG = "ETag";
+    private final static String RESPONSE_HEADER_LAST_MODIFIED = "Last-Modified";
 
 
     // ネットワーク通信用 定数
@@ -71,11 +64,12 @@ public class HttpRequest {
     public final static int STATUS_INTERRUPTED = -3;
     public final static int STATUS_ERROR_PERMISSION = -4;
 
-    private final static int MAX_TRY_CONNECTION_COUNT = 3;
     private final static int TIMEOUT_CONNECTION_MILLI_SEC = 6000;
     private final static int TIMEOUT_MILLI_SEC = 30000;
     private final static int TIMEOUT_FILE_TRANSFER = 300000;    // 300,000ミリ秒 = 5分
 
+    public final static int DEFAULT_MAX_REDIRECTS = 10;
+
     private final static int BUFF_SIZE = 16 * 1024;
     private final static int COUNT_CHECK_INTERRUPT = (1024 * 1024) / BUFF_SIZE;
 
@@ -83,13 +77,53 @@ public class HttpRequest {
     private int mMethodType = METHOD_GET;
     private String mRequestUrl;
     private List<HttpParameter> mRequestQueryParams = null;
-    private IRequestBody mRequestBody = null;
+    private HttpRequestBody mRequestBody = null;
     private Map<String, String> mExtraHeaders = new HashMap<>();
     private String mUserAgent = null;
     private String mUserPassword = null;
     private int mTimeoutMilliSec = -1;
     private boolean mIgnoreCertificateSsl = false;              // 自己署名証明書（オレオレ証明書）サイト接続フラグ
+    private SSLSocketFactory mSslSocketFactory = null;          // https接続に使用する SSLSocketFactory (未指定の場合は システムの設定)
+    private HttpDns mDns = null;                                // 名前解決 (未指定の場合は sDefaultDns)
+    private HttpEventListener mEventListener = null;            // 実行の各段階の通知先 (未指定の場合は sDefaultEventListener)
+    private HttpBandwidthLimiter mBandwidthLimiter = null;      // 通信量の制限 (sDefaultBandwidthLimiterの制限も 合わせて適用する)
+    private HttpEngine mEngine = null;                          // 通信を行うエンジン (未指定の場合は sDefaultEngine)
+    private boolean mInternalRequest = false;                   // 分割ダウンロード等で 内部的に実行するリクエストか (通知を行わない)
     private String mCookieUrl = null;
+    private boolean mKeepAlive = false;                         // keep-alive接続の再利用フラグ
+    private boolean mAcceptCompression = false;                 // gzip/deflate圧縮レスポンスの受信フラグ
+    private boolean mResumeDownload = false;                    // ファイル受信の レジューム(途中からの再開)フラグ
+    private int mMaxSegments = 0;                               // ファイルの分割ダウンロードの 最大並列数
+    private Object mTag = null;                                 // 一括キャンセル用のタグ
+    private boolean mCoalesce = false;                          // 同時に実行された 同一GETリクエストの 集約フラグ
+    private HttpRetryPolicy mRetryPolicy = new HttpRetryPolicy();
+    private int mMaxRedirects = DEFAULT_MAX_REDIRECTS;          // リダイレクトを辿る 最大回数
+    private boolean mRedirectedToGet = false;                   // リダイレクトにより GETに変更されたか (実行中のみ設定される)
+    private HttpDiskCache mDiskCache = null;
+    private HttpMemoryCache mMemoryCache = null;
+    private long mMemoryCacheTtlMilliSec = -1;
+    private Map<String, String> mConditionalHeaders = null;     // キャッシュの確認用ヘッダ (実行中のみ設定される)
+
+    // 中断処理用
+    private volatile boolean mAborted = false;
+    private volatile HttpEngine.Exchange mActiveExchange = null;
+    private IOException mLastError = null;                      // 直前の通信で発生した 通信エラー (リトライの判定用)
+    private boolean mRequestSent = false;                       // 直前の通信で リクエストを送信したか
+    private boolean mStreamDelivered = false;                   // 直前の通信で listenerに bodyを渡したか
+    private volatile boolean mExchangeFailed = false;           // 直前の通信で 送受信のストリームが エラーになったか
+    private final List<HttpRequest> mChildRequests = new ArrayList<>();     // 分割ダウンロード等で 内部的に実行するリクエスト
+
+    // タグ毎の リクエスト (実行されずに破棄されたリクエストが残らないように、弱参照で保持する)
+    // タグとして指定した Activity等を 保持し続けないように、タグは弱参照で保持する
+    private final static Map<Object, Set<HttpRequest>> sTaggedRequests = new WeakHashMap<>();
+    // 全てのリクエストで使用する 名前解決。nullの場合は HttpEngine(システム)が名前解決を行う
+    private static volatile HttpDns sDefaultDns = null;
+    // 全てのリクエストの 実行の各段階の通知先
+    private static volatile HttpEventListener sDefaultEventListener = null;
+    // 全てのリクエストの 合計の 通信量の制限
+    private static volatile HttpBandwidthLimiter sDefaultBandwidthLimiter = null;
+    // 全てのリクエストで使用する エンジン。nullの場合は HttpUrlConnectionEngine
+    private static volatile HttpEngine sDefaultEngine = null;
 
 
     public HttpRequest(int method, String url) {
@@ -112,14 +146,9 @@ public class HttpRequest {
             mRequestBody = null;
 
         } else if (HttpParameter.hasFile(params)) {
-            // 送信データにFileが含まれている場合は、multipart用の 送信データを作成する
+            // 送信データにFile(または HttpRequestBody)が含まれている場合は、multipart用の 送信データを作成する
             mRequestQueryParams = null;
-            try {
-                mRequestBody = new MultipartEntity(params);
-
-            } catch (Exception e) {
-                mRequestBody = null;
-            }
+            mRequestBody = new HttpMultipartBody(params, ENCODING);
 
         } else {
             // paramsのみの場合は、x-www-form-urlencodedで送信する
@@ -138,6 +167,14 @@ public class HttpRequest {
         return this;
     }
 
+    // InputStream, ByteBuffer, content Uri等から 読み込みながら送信する場合
+    // これ以前にsetContent()メソッドで設定した内容は上書きされる
+    public HttpRequest setContent(HttpRequestBody requestBody) {
+        mRequestQueryParams = null;
+        mRequestBody = requestBody;
+        return this;
+    }
+
     public HttpRequest setAuthorization(String account, String password) {
         if (account != null) {
             mUserPassword = account + ":" + (password != null ? password : "");
@@ -172,6 +209,174 @@ public class HttpRequest {
         return this;
     }
 
+    // このリクエストの 名前解決を指定。指定した場合は 解決したアドレスに接続し、Hostヘッダに 元のホスト名を指定する
+    public HttpRequest setDns(HttpDns dns) {
+        mDns = dns;
+        return this;
+    }
+
+    // 全てのリクエストで使用する 名前解決を指定。nullの場合は システムの名前解決を使用する
+    public static void setDefaultDns(HttpDns dns) {
+        sDefaultDns = dns;
+    }
+
+    // このリクエストの 実行の各段階(名前解決, 接続, 送受信, リトライ等)の 通知先を指定
+    public HttpRequest setEventListener(HttpEventListener eventListener) {
+        mEventListener = eventListener;
+        return this;
+    }
+
+    // 全てのリクエストの 実行の各段階の 通知先を指定。nullの場合は 通知を行わない
+    public static void setDefaultEventListener(HttpEventListener eventListener) {
+        sDefaultEventListener = eventListener;
+    }
+
+    // 実行の各段階の 通知先。通知しない場合は null
+    HttpEventListener getActiveEventListener() {
+        if (mInternalRequest) return null;
+        return (mEventListener != null ? mEventListener : sDefaultEventListener);
+    }
+
+    // このリクエストの 送信/受信の 通信量の制限を指定。同じインスタンスを指定したリクエストの 合計で制限する
+    public HttpRequest setBandwidthLimiter(HttpBandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = bandwidthLimiter;
+        return this;
+    }
+
+    // 全てのリクエストの 合計の 通信量の制限を指定。nullの場合は 制限しない
+    public static void setDefaultBandwidthLimiter(HttpBandwidthLimiter bandwidthLimiter) {
+        sDefaultBandwidthLimiter = bandwidthLimiter;
+    }
+
+    // このリクエストの 通信(接続, 送信, 受信)を行う エンジンを指定
+    public HttpRequest setEngine(HttpEngine engine) {
+        mEngine = engine;
+        return this;
+    }
+
+    // 全てのリクエストで使用する エンジンを指定。nullの場合は HttpUrlConnectionEngineを使用する
+    public static void setDefaultEngine(HttpEngine engine) {
+        sDefaultEngine = engine;
+    }
+
+    // 通信を行う エンジン
+    private HttpEngine getActiveEngine() {
+        if (mEngine != null) return mEngine;
+        HttpEngine engine = sDefaultEngine;
+        return (engine != null ? engine : HttpUrlConnectionEngine.getInstance());
+    }
+
+    // https接続に使用する SSLSocketFactoryを指定 (クライアント証明書や 独自の証明書検証を行う場合)
+    // TLSセッションの再開と keep-alive接続の再利用のため、HttpSslSocketFactory.getInstance()等の 共有のものを指定すること
+    public HttpRequest setSslSocketFactory(SSLSocketFactory sslSocketFactory) {
+        mSslSocketFactory = sslSocketFactory;
+        return this;
+    }
+
+    // keep-alive接続を再利用するかを指定
+    // trueを指定した場合、EOFException対策の「Connection: close」の送信は行わない
+    public HttpRequest keepAlive(boolean keepAlive) {
+        mKeepAlive = keepAlive;
+        return this;
+    }
+
+    // ファイル受信に失敗した際に 受信済みの部分を残しておき、次回の execute(File)で続きから受信するかを指定
+    // 続きからの受信は GETリクエストで、サーバが ETagまたは Last-Modifiedを返す場合のみ行う
+    public HttpRequest resumeDownload(boolean resume) {
+        mResumeDownload = resume;
+        return this;
+    }
+
+    // execute(File)で ファイルを複数の範囲に分割して 並列にダウンロードする場合の 最大並列数を指定
+    // 2以上を指定した場合のみ 分割ダウンロードを行う。サーバが Rangeに対応していない場合は 1本の接続で受信する
+    public HttpRequest segmentedDownload(int maxSegments) {
+        mMaxSegments = maxSegments;
+        return this;
+    }
+
+    // レスポンスを保存するディスクキャッシュを指定
+    // GETリクエストの execute(File)/execute(null)のみ キャッシュを使用する
+    public HttpRequest setDiskCache(HttpDiskCache cache) {
+        mDiskCache = cache;
+        return this;
+    }
+
+    // レスポンスを保持するメモリキャッシュを指定
+    // GETリクエストの execute(null)のみ キャッシュを使用する。有効期間は キャッシュのデフォルトの有効期間となる
+    public HttpRequest setMemoryCache(HttpMemoryCache cache) {
+        return setMemoryCache(cache, -1);
+    }
+
+    // レスポンスを保持するメモリキャッシュと、このリクエストのレスポンスの 有効期間(ミリ秒)を指定
+    public HttpRequest setMemoryCache(HttpMemoryCache cache, long ttlMilliSec) {
+        mMemoryCache = cache;
+        mMemoryCacheTtlMilliSec = ttlMilliSec;
+        return this;
+    }
+
+    // 一括キャンセル用のタグを指定
+    // 同じタグを指定したリクエストは、cancelAll(tag)で まとめて中断できる
+    public HttpRequest setTag(Object tag) {
+        synchronized (sTaggedRequests) {
+            unregisterTag();
+            mTag = tag;
+            registerTag();
+        }
+        return this;
+    }
+
+    public Object getTag() {
+        return mTag;
+    }
+
+    // 接続先のホスト名を返す。URLが不正な場合は カラ文字列
+    public String getHost() {
+        try {
+            String host = new URL(mRequestUrl).getHost();
+            return (host != null ? host : "");
+        } catch (MalformedURLException | NullPointerException e) {
+            return "";
+        }
+    }
+
+    // 同じ内容の GETリクエストが 同時に実行された場合に、通信を1回にまとめるかを指定
+    // URL, queryパラメータ, リクエストヘッダが同じものを 同じ内容とみなし、後から実行されたものは 先に実行されたものの結果を共有する
+    // 共有したレスポンスのバイト配列は 同じものなので、呼び出し側で 内容を変更しないこと
+    public HttpRequest coalesce(boolean coalesce) {
+        mCoalesce = coalesce;
+        return this;
+    }
+
+    // 通信エラーや 一時的なエラーの場合の リトライの方針を指定
+    // nullを指定した場合は リトライしない
+    public HttpRequest setRetryPolicy(HttpRetryPolicy retryPolicy) {
+        mRetryPolicy = retryPolicy;
+        return this;
+    }
+
+    // リダイレクトを辿る 最大回数を指定。0を指定した場合は リダイレクトのレスポンスをそのまま返す
+    public HttpRequest followRedirects(int maxRedirects) {
+        mMaxRedirects = Math.max(maxRedirects, 0);
+        return this;
+    }
+
+    // 記録した 恒久的なリダイレクト(301, 308)の転送先を 全て破棄する
+    public static void clearRedirectCache() {
+        HttpRedirectCache.clear();
+    }
+
+    // 他のリクエストの結果を 共有した回数
+    public static long getCoalescedCount() {
+        return HttpSingleFlight.getSharedCount();
+    }
+
+    // gzip/deflateで圧縮されたレスポンスを受け付けるかを指定
+    // 圧縮されたレスポンスは 受信しながら展開する
+    public HttpRequest acceptCompression(boolean accept) {
+        mAcceptCompression = accept;
+        return this;
+    }
+
 
     private String toMethodString(int type) {
         switch (type) {
@@ -226,274 +431,891 @@ public class HttpRequest {
         return (responseCode >= 400 && responseCode <= 599 || responseCode <= 0);
     }
 
+    private boolean isRedirectStatus(int responseCode) {
+        switch (responseCode) {
+            case 301:
+            case 302:
+            case 303:
+            case 307:
+            case 308:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 通信を中断する。どのスレッドからでも呼び出せる
+     * 接続中/送信中/レスポンス待ち/受信中の いずれの状態でも 接続を切断し、execute()は STATUS_INTERRUPTEDを返す
+     * 実行前に呼び出した場合は、execute()は 通信を行わずに STATUS_INTERRUPTEDを返す
+     */
     public void abort() {
-        // HttpURLConnectionの場合、Thread.interrupt() で 割り込み可能なので、Abort処理は行わない
-        // AndroidHttpClient通信版との互換性のため、メソッドはのこしておく
+        mAborted = true;
+
+        final HttpEngine.Exchange exchange = mActiveExchange;
+        if (exchange != null) {
+            // ソケットを閉じて ブロックしている読み書きを終了させる
+            // メインスレッドから呼び出された場合でも NetworkOnMainThreadExceptionとならないように 別スレッドで切断する
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    exchange.cancel();
+                }
+            }).start();
+        }
+
+        List<HttpRequest> children;
+        synchronized (mChildRequests) {
+            children = new ArrayList<>(mChildRequests);
+        }
+        for (HttpRequest child : children) {
+            child.abort();
+        }
+    }
+
+    public boolean isAborted() {
+        return mAborted;
+    }
+
+    /**
+     * 指定されたタグが設定されている リクエストを すべて中断する
+     * 画面の終了時などに、その画面から実行した通信をまとめて中断するために使用する
+     * @param tag setTag()で指定したタグ
+     */
+    public static void cancelAll(Object tag) {
+        if (tag == null) return;
+
+        List<HttpRequest> requests;
+        synchronized (sTaggedRequests) {
+            Set<HttpRequest> tagged = sTaggedRequests.remove(tag);
+            if (tagged == null) return;
+            requests = new ArrayList<>(tagged);
+        }
+        for (HttpRequest request : requests) {
+            if (request != null) request.abort();
+        }
+    }
+
+    // sTaggedRequestsを ロックした状態で呼び出すこと
+    private void registerTag() {
+        if (mTag == null) return;
+        Set<HttpRequest> requests = sTaggedRequests.get(mTag);
+        if (requests == null) {
+            requests = Collections.newSetFromMap(new WeakHashMap<HttpRequest, Boolean>());
+            sTaggedRequests.put(mTag, requests);
+        }
+        requests.add(this);
+    }
+
+    // sTaggedRequestsを ロックした状態で呼び出すこと
+    private void unregisterTag() {
+        if (mTag == null) return;
+        Set<HttpRequest> requests = sTaggedRequests.get(mTag);
+        if (requests == null) return;
+        requests.remove(this);
+        if (requests.isEmpty()) sTaggedRequests.remove(mTag);
+    }
+
+    // 一括キャンセルの対象として 登録されているリクエストの数 (単体テスト用)
+    static int countTaggedRequests(Object tag) {
+        synchronized (sTaggedRequests) {
+            Set<HttpRequest> requests = sTaggedRequests.get(tag);
+            return (requests != null ? requests.size() : 0);
+        }
+    }
+
+    // 中断されていれば InterruptedExceptionを発生させる
+    private void checkAborted() throws InterruptedException {
+        if (mAborted) throw new InterruptedException();
     }
 
     public  HttpResponse execute(File responseFile) {
+        return execute(responseFile, null);
+    }
+
+    /**
+     * レスポンスbodyを メモリに保持せず、受信中のストリームのまま listenerに渡す
+     * listenerから戻った時点で 接続は閉じられる
+     * @param listener レスポンスbodyの読み込みを行うリスナー
+     * @return レスポンス (レスポンスbodyのバイト配列は含まない)
+     */
+    public HttpResponse executeStream(OnResponseStreamListener listener) {
+        return execute(null, listener);
+    }
+
+    /**
+     * レスポンスbodyを メモリに保持せず、受信したバッファ単位で listenerに渡す
+     * @param listener 受信したデータを処理するリスナー
+     * @return レスポンス (レスポンスbodyのバイト配列は含まない)
+     */
+    public HttpResponse executeStream(final OnResponseChunkListener listener) {
+        if (listener == null) return executeStream((OnResponseStreamListener)null);
+        return execute(null, new OnResponseStreamListener() {
+            @Override
+            public void onResponseStream(HttpResponse response, InputStream body) throws IOException, InterruptedException {
+                byte[] buffer = new byte[ BUFF_SIZE ];
+                int count = 0;
+                int size;
+                while ((size = body.read(buffer, 0, BUFF_SIZE)) != -1) {
+                    listener.onResponseChunk(response, buffer, size);
+                    // interruptのチェック用処理
+                    if (++count >= COUNT_CHECK_INTERRUPT) {
+                        // 割り込みを受け付けるように sleep()を呼んでおく
+                        Thread.sleep(0, 1);
+                        checkAborted();
+                        count = 0;
+                    }
+                }
+            }
+        });
+    }
+
+    private HttpResponse execute(File responseFile, OnResponseStreamListener streamListener) {
+        // 同じリクエストを 再度実行する場合に備えて、実行中は タグを登録しておく
+        synchronized (sTaggedRequests) {
+            registerTag();
+        }
+        try {
+            HttpEventListener eventListener = getActiveEventListener();
+            if (eventListener == null) return executeCall(responseFile, streamListener);
+
+            eventListener.callStart(this, System.nanoTime());
+            HttpResponse response = executeCall(responseFile, streamListener);
+            eventListener.callEnd(this, response, System.nanoTime());
+            return response;
+
+        } finally {
+            // 実行を終えたリクエストは 中断の対象でないので、タグの登録を解除する
+            synchronized (sTaggedRequests) {
+                unregisterTag();
+            }
+        }
+    }
+
+    private HttpResponse executeCall(File responseFile, OnResponseStreamListener streamListener) {
         if (mRequestUrl == null || mRequestUrl.isEmpty()) {
             // リクエストURLが未指定の場合は 400 Bad Requestを返しておく
-            return new HttpResponse(400, null, null);
+            return new HttpResponse(400);
+        }
+        if (mAborted) return new HttpResponse(STATUS_INTERRUPTED);
+        if (mCoalesce && streamListener == null && mMethodType == METHOD_GET) {
+            // 同じ内容のリクエストが実行中であれば、その結果を共有する
+            return HttpSingleFlight.execute(this, getCoalescingKey(responseFile), responseFile);
         }
+        return executeUncoalesced(responseFile, streamListener);
+    }
 
-        HttpResponse response = executeRequest(mRequestUrl, responseFile);
+    HttpResponse executeUncoalesced(File responseFile, OnResponseStreamListener streamListener) {
+        if (responseFile != null && mMaxSegments >= 2 && !hasRequestBody()) {
+            // 分割ダウンロード。全体サイズが分からない場合は 1本のストリームで取得する
+            HttpResponse response = new HttpSegmentedDownload(this, mMaxSegments).execute(responseFile);
+            if (response != null) return response;
+        }
+        if (mMemoryCache != null && responseFile == null && streamListener == null && mMethodType == METHOD_GET && !hasConditionalHeader()) {
+            // メモリキャッシュ → ディスクキャッシュ → 通信 の順に レスポンスを取得する
+            String key = getCacheKey();
+            HttpResponse response = mMemoryCache.get(key);
+            if (response != null) return response;
+
+            response = executeWithCache(null, null);
+            mMemoryCache.put(key, response, mMemoryCacheTtlMilliSec);
+            return response;
+        }
+        return executeWithCache(responseFile, streamListener);
+    }
 
-        // status 307 Temporary Redirectに対応
-        switch (response.getHttpStatus()) {
-            case 302:
-            case 303:
-            case 307:
-            case 308:
-                String redirectUrl = response.getResponseHeader(RESPONSE_HEADER_LOCATION);
-                if (redirectUrl != null && !redirectUrl.isEmpty()) {
-                    response = executeRequest(redirectUrl, responseFile);
-                }
-                break;
+    private HttpResponse executeWithCache(File responseFile, OnResponseStreamListener streamListener) {
+        if (mDiskCache != null && streamListener == null && mMethodType == METHOD_GET && !hasConditionalHeader()) {
+            return executeWithDiskCache(responseFile);
+        }
+        return executeFollowRedirect(responseFile, streamListener);
+    }
+
+    private HttpResponse executeWithDiskCache(File responseFile) {
+        String key = getCacheKey();
+        HttpDiskCache.Entry entry = mDiskCache.get(key);
+        if (entry != null && entry.isFresh(System.currentTimeMillis())) {
+            // 有効期間内であれば 通信を行わない
+            HttpResponse cached = mDiskCache.toResponse(entry, responseFile, false);
+            if (cached != null) return cached;
+        }
+
+        // 有効期間を過ぎている場合は サーバに更新されているかを確認する
+        if (entry != null) mConditionalHeaders = entry.getConditionalHeaders();
+        long requestTime = System.currentTimeMillis();
+        HttpResponse response;
+        try {
+            response = executeFollowRedirect(responseFile, null);
+        } finally {
+            mConditionalHeaders = null;
+        }
+        long responseTime = System.currentTimeMillis();
+
+        if (response.getHttpStatus() == 304 && entry != null) {
+            // 更新されていなければ キャッシュを返す
+            entry = mDiskCache.update(entry, response.getHeaders(), requestTime, responseTime);
+            HttpResponse cached = (entry != null ? mDiskCache.toResponse(entry, responseFile, true) : null);
+            if (cached != null) return cached;
+            return response;
         }
+        mDiskCache.onNetworkResponse();
+        mDiskCache.put(key, response, responseFile, requestTime, responseTime);
         return response;
     }
 
-    @SuppressLint("ObsoleteSdkInt")
-    private HttpResponse executeRequest(String requestUrl, File responseFile) {
-        HttpURLConnection urlConnection = null;
-        int responseCode = 0;
-        byte[] responseBytes = null;                // レスポンスを バイト配列で返す際の保存先
-        Map<String, String> responseHeaders = null;
-        CookieManager cookieManager = CookieManager.getInstance();
+    // 呼び出し元が 条件付きリクエストや範囲指定を行っている場合は、キャッシュは使用しない
+    private boolean hasConditionalHeader() {
+        for (String name : mExtraHeaders.keySet()) {
+            if ("If-None-Match".equalsIgnoreCase(name) || "If-Modified-Since".equalsIgnoreCase(name)
+                    || "Range".equalsIgnoreCase(name)) return true;
+        }
+        return false;
+    }
+
+    // キャッシュのキー。メソッド, URL, queryパラメータから作成する
+    String getCacheKey() {
+        StringBuilder builder = new StringBuilder(toMethodString(mMethodType)).append(' ').append(mRequestUrl);
+        if (mRequestQueryParams != null && !mRequestQueryParams.isEmpty()) {
+            builder.append(mRequestUrl.indexOf('?') >= 0 ? '&' : '?');
+            builder.append(HttpParameter.toQueryString(mRequestQueryParams, ENCODING));
+        }
+        return builder.toString();
+    }
+
+    // 集約のキー。キャッシュのキーに レスポンスに影響する指定(ヘッダ, 認証, 圧縮, 出力形式)を加えて作成する
+    private String getCoalescingKey(File responseFile) {
+        StringBuilder builder = new StringBuilder(getCacheKey());
+        builder.append('\n').append(responseFile != null ? "file" : "bytes");
+        builder.append('\n').append(mAcceptCompression);
+        builder.append('\n').append(mUserAgent);
+        builder.append('\n').append(mUserPassword);
+        builder.append('\n').append(mCookieUrl);
+        // ヘッダ名の 大文字小文字と順序によらず 同じキーとなるようにする
+        Map<String, String> headers = new TreeMap<>();
+        for (Map.Entry<String, String> header : mExtraHeaders.entrySet()) {
+            if (header.getKey() != null) headers.put(header.getKey().toLowerCase(Locale.ENGLISH), header.getValue());
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.append('\n').append(header.getKey()).append(": ").append(header.getValue());
+        }
+        return builder.toString();
+    }
+
+    private HttpResponse executeFollowRedirect(File responseFile, OnResponseStreamListener streamListener) {
+        String requestUrl;
+        try {
+            requestUrl = buildRequestUrl();
+        } catch (MalformedURLException | URISyntaxException e) {
+            return new HttpResponse(STATUS_ERROR_INTERNAL);
+        }
 
         try {
-            URL url = new URL(requestUrl);
-            // 追加の queryパラメータが指定されている場合は、それを付加してURLオブジェクトを再作成する
-            if (mRequestQueryParams != null && !mRequestQueryParams.isEmpty()) {
-                String queryNew = HttpParameter.toQueryString(mRequestQueryParams, ENCODING);
-                String queryOrg = url.getQuery();
-                if (queryOrg != null && !queryOrg.isEmpty()) {
-                    queryNew = queryOrg + "&" + queryNew;       // urlについていたqueryと別途指定されたパラメータを連結
+            if (mMaxRedirects > 0) {
+                // 恒久的なリダイレクトが記録されていれば、転送先に直接リクエストする
+                // POSTは 301でGETに変更されるので、メソッドが変わらない 308の記録のみ使用する
+                requestUrl = HttpRedirectCache.resolve(requestUrl, mMethodType != METHOD_POST, mMaxRedirects);
+            }
+            HttpResponse response = executeRequest(requestUrl, responseFile, streamListener);
+
+            // 301, 302, 303, 307, 308 Redirectに対応
+            int hops = 0;
+            while (isRedirectStatus(response.getHttpStatus()) && !mAborted && hops < mMaxRedirects) {
+                String location = response.getResponseHeader(RESPONSE_HEADER_LOCATION);
+                if (location == null || location.isEmpty()) break;
+                String redirectUrl;
+                try {
+                    // 相対URLの場合は リクエストURLを基準に解決する
+                    redirectUrl = new URL(new URL(requestUrl), location).toString();
+                } catch (MalformedURLException e) {
+                    break;
                 }
-                url = new URI(url.getProtocol(), url.getAuthority(), url.getPath(), queryNew, url.getRef()).toURL();
+
+                int status = response.getHttpStatus();
+                if (status == 301 || status == 308) HttpRedirectCache.put(requestUrl, redirectUrl, status);
+                if (status == 303 || ((status == 301 || status == 302) && mMethodType == METHOD_POST)) {
+                    // 303, および POSTに対する 301/302は bodyを送らずに GETで転送先を取得する
+                    mRedirectedToGet = true;
+                } else if (!canResend()) {
+                    // bodyを引き継ぐリダイレクトは 1度しか送信できない bodyでは行えないので、リダイレクトのレスポンスを返す
+                    break;
+                }
+                hops++;
+                requestUrl = redirectUrl;
+                HttpEventListener eventListener = getActiveEventListener();
+                if (eventListener != null) eventListener.redirect(this, status, redirectUrl, System.nanoTime());
+                response = executeRequest(requestUrl, responseFile, streamListener);
             }
-            urlConnection = (HttpURLConnection)url.openConnection();
-            if (mIgnoreCertificateSsl && urlConnection instanceof HttpsURLConnection) {
-                // 自己署名証明書（オレオレ証明書）サイトに接続させるためのパッチ
-                ignoreCertificateSsl((HttpsURLConnection)urlConnection);
+            return response;
+
+        } finally {
+            mRedirectedToGet = false;
+        }
+    }
+
+    // 追加の queryパラメータが指定されている場合は、それを付加した リクエストURLを作成する
+    private String buildRequestUrl() throws MalformedURLException, URISyntaxException {
+        if (mRequestQueryParams == null || mRequestQueryParams.isEmpty()) return mRequestUrl;
+
+        URL url = new URL(mRequestUrl);
+        String queryNew = HttpParameter.toQueryString(mRequestQueryParams, ENCODING);
+        String queryOrg = url.getQuery();
+        if (queryOrg != null && !queryOrg.isEmpty()) {
+            queryNew = queryOrg + "&" + queryNew;       // urlについていたqueryと別途指定されたパラメータを連結
+        }
+        return new URI(url.getProtocol(), url.getAuthority(), url.getPath(), queryNew, url.getRef()).toURL().toString();
+    }
+
+    // setContent()で作成した 送信データ。送信データがない場合は null
+    HttpRequestBody getRequestBody() {
+        return mRequestBody;
+    }
+
+    // 実行中の httpメソッド。リダイレクトにより GETに変更されている場合は GET
+    private int getActiveMethodType() {
+        return (mRedirectedToGet ? METHOD_GET : mMethodType);
+    }
+
+    // 実行中の request body。リダイレクトにより GETに変更されている場合は 送信しない
+    private HttpRequestBody getActiveRequestBody() {
+        return (mRedirectedToGet ? null : mRequestBody);
+    }
+
+    /**
+     * 分割ダウンロード用に、指定範囲を取得する このリクエストの複製を作成する
+     * @param start 開始位置
+     * @param end 終了位置(この位置を含む)
+     * @param validator If-Rangeに指定する値 (ETagまたは Last-Modified)。指定しない場合は null
+     * @return 複製したリクエスト
+     */
+    HttpRequest copyForRange(long start, long end, String validator) {
+        HttpRequest request = new HttpRequest(mMethodType, mRequestUrl);
+        request.mRequestQueryParams = mRequestQueryParams;
+        request.mExtraHeaders.putAll(mExtraHeaders);
+        request.mUserAgent = mUserAgent;
+        request.mUserPassword = mUserPassword;
+        request.mTimeoutMilliSec = (mTimeoutMilliSec >= 0 ? mTimeoutMilliSec : TIMEOUT_FILE_TRANSFER);
+        request.mIgnoreCertificateSsl = mIgnoreCertificateSsl;
+        request.mSslSocketFactory = mSslSocketFactory;
+        request.mDns = mDns;
+        // 分割ダウンロードの 範囲毎のリクエストも 同じ制限を共有する
+        request.mBandwidthLimiter = mBandwidthLimiter;
+        request.mEngine = mEngine;
+        request.mCookieUrl = mCookieUrl;
+        request.mKeepAlive = mKeepAlive;
+        // 実行の通知は 元のリクエストの 開始と終了のみ行う
+        request.mInternalRequest = true;
+        // 範囲毎のリトライは 元のリクエストの mRetryPolicyに従って 分割ダウンロード側で行う
+        request.mRetryPolicy = null;
+        // 範囲指定の取得では 圧縮を受け付けない
+        request.mAcceptCompression = false;
+        request.mExtraHeaders.put("Range", "bytes=" + start + "-" + end);
+        if (validator != null) request.mExtraHeaders.put("If-Range", validator);
+        // このリクエストの abort()で 複製したリクエストも中断されるようにする
+        synchronized (mChildRequests) {
+            mChildRequests.add(request);
+        }
+        if (mAborted) request.abort();
+        return request;
+    }
+
+    // copyForRange()で作成したリクエストの 実行が終了した際に呼び出す
+    void removeChild(HttpRequest request) {
+        synchronized (mChildRequests) {
+            mChildRequests.remove(request);
+        }
+    }
+
+    // 分割ダウンロードで 範囲毎のリトライの判定に使用する
+    HttpRetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+
+    // 直前の通信で発生した 通信エラー。通信エラーでない場合は null
+    IOException getLastError() {
+        return mLastError;
+    }
+
+    private HttpResponse executeRequest(String requestUrl, File responseFile, OnResponseStreamListener streamListener) {
+        HttpResponse response = executeRequest(requestUrl, responseFile, streamListener, !mKeepAlive);
+        if (mRetryPolicy == null) return response;
+
+        long startTime = System.currentTimeMillis();
+        int retryCount = 0;
+        // listenerに bodyを渡した後は、listenerが重複して受け取ることになるので リトライしない
+        while (!mAborted && !mStreamDelivered && canResend() && isRetryCandidate(response)) {
+            long delay = mRetryPolicy.getRetryDelay(toMethodString(getActiveMethodType()), ++retryCount, response,
+                    mLastError, mRequestSent, System.currentTimeMillis() - startTime);
+            if (delay < 0) break;
+            HttpEventListener eventListener = getActiveEventListener();
+            if (eventListener != null) eventListener.retry(this, retryCount, delay, System.nanoTime());
+            if (!waitForRetry(delay)) break;
+            // 失敗した接続を再利用しないように、新しい接続でリトライする
+            response = executeRequest(requestUrl, responseFile, streamListener, true);
+        }
+        if (mAborted) return new HttpResponse(STATUS_INTERRUPTED);
+        return response;
+    }
+
+    // 再送しても 結果が変わらないメソッドか
+    private boolean isIdempotentMethod() {
+        int method = getActiveMethodType();
+        return (method == METHOD_GET || method == METHOD_PUT || method == METHOD_DELETE);
+    }
+
+    // 直前の通信で 1度しか送信できない request bodyを 送信していなければ、もう1度リクエストを行える
+    private boolean canResend() {
+        HttpRequestBody requestBody = getActiveRequestBody();
+        return (requestBody == null || requestBody.isRepeatable() || !mRequestSent);
+    }
+
+    // 通信エラー、または エラーstatusの場合は リトライの判定を行う
+    private boolean isRetryCandidate(HttpResponse response) {
+        return (mLastError != null || isErrorStatus(response.getHttpStatus()));
+    }
+
+    // リトライまでの待機。中断された場合は false
+    private boolean waitForRetry(long delayMilliSec) {
+        long endTime = System.currentTimeMillis() + delayMilliSec;
+        try {
+            long remain;
+            while ((remain = endTime - System.currentTimeMillis()) > 0) {
+                // abort()を 待機中にも確認する
+                Thread.sleep(Math.min(remain, 100));
+                checkAborted();
             }
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
 
-            // httpメソッド設定
-            urlConnection.setRequestMethod(toMethodString(mMethodType));
+    private HttpResponse executeRequest(String requestUrl, File responseFile, OnResponseStreamListener streamListener, boolean forceClose) {
+        HttpEngine.Exchange exchange = null;
+        URL url = null;
+        boolean reusedConnection = false;
+        boolean reusable = false;
+        boolean retryStale = false;
+        boolean retryFresh = false;
+        HttpDownloadFile downloadFile = (responseFile != null ? new HttpDownloadFile(responseFile) : null);
+        HttpRequestBody requestBody = getActiveRequestBody();
+        boolean resumable = (downloadFile != null && mResumeDownload && requestBody == null && getActiveMethodType() == METHOD_GET);
+        long resumeOffset = 0;
+        int responseCode = 0;
+        byte[] responseBytes = null;                // レスポンスを バイト配列で返す際の保存先
+        long receivedLength = 0;                    // 通信上の(展開前の) レスポンスbodyのバイト数
+        long decodedLength = 0;                     // 展開後の レスポンスbodyのバイト数
+        HttpHeaders responseHeaders = null;
+        HttpEventListener eventListener = getActiveEventListener();
+        boolean localIo = false;                    // ファイル等の ローカルの読み書きを行っているか
+        mLastError = null;
+        mRequestSent = false;
+        mStreamDelivered = false;
+        mExchangeFailed = false;
 
-            // タイムアウト時間の設定
-            urlConnection.setReadTimeout(selectTimeout(responseFile));
-            urlConnection.setConnectTimeout(TIMEOUT_CONNECTION_MILLI_SEC);
+        try {
+            // 追加の queryパラメータは buildRequestUrl()で 付加済み
+            url = new URL(requestUrl);
+            // 名前解決が指定されている場合は、解決したアドレスに接続する
+            String hostname = null;
+            HttpDns dns = (mDns != null ? mDns : sDefaultDns);
+            if (dns != null && !isIpAddress(url.getHost())) {
+                hostname = url.getHost();
+                if (eventListener != null) eventListener.dnsStart(this, hostname, System.nanoTime());
+                List<InetAddress> addresses = null;
+                try {
+                    addresses = dns.lookup(hostname);
+                } finally {
+                    if (eventListener != null) eventListener.dnsEnd(this, hostname, addresses, System.nanoTime());
+                }
+                // 指定された名前解決が 結果を返さなかった場合も 名前解決の失敗として扱う
+                if (addresses == null || addresses.isEmpty() || addresses.get(0) == null) throw new UnknownHostException(hostname);
+                url = new URL(url.getProtocol(), toHostLiteral(addresses.get(0)), url.getPort(), url.getFile());
+            }
+            HttpHeaders.Builder headers = new HttpHeaders.Builder();
+            // アドレスで接続する場合も、サーバには 元のホスト名を通知する
+            if (hostname != null) headers.set("Host", (url.getPort() >= 0 ? hostname + ":" + url.getPort() : hostname));
 
             // User-Agent設定
-            if (mUserAgent != null) urlConnection.setRequestProperty("User-Agent", mUserAgent);
+            if (mUserAgent != null) headers.set("User-Agent", mUserAgent);
             // Basic認証設定
             String userPassword = (mUserPassword != null ? mUserPassword : url.getUserInfo());  // ユーザ/パスワードが未設定の場合は URLからの取得も試みる
             if (userPassword != null) {
-                urlConnection.setRequestProperty("Authorization", "Basic " + Base64.encodeToString(userPassword.getBytes(), Base64.NO_WRAP));
+                headers.set("Authorization", "Basic " + Base64.encodeToString(userPassword.getBytes(), Base64.NO_WRAP));
             }
             if (mCookieUrl != null) {
-                // CookieManagerから サイトに紐づくcookieを反映する
-                String cookie = cookieManager.getCookie(mCookieUrl);
-                urlConnection.addRequestProperty("Cookie", cookie);
+                // サイトに紐づくcookieを反映する (CookieManagerとの同期は HttpCookieJarが行う)
+                String cookie = HttpCookieJar.getInstance().getCookieHeader(mCookieUrl);
+                if (cookie != null) headers.add("Cookie", cookie);
             }
 
             for(Map.Entry<String, String> header : mExtraHeaders.entrySet()) {
-                urlConnection.setRequestProperty(header.getKey(), (header.getValue() != null ? header.getValue() : ""));
+                headers.set(header.getKey(), header.getValue());
             }
-            urlConnection.setRequestProperty( "Accept-Encoding", "" );
-            // httpUrlConnectionで EOFExceptionが 発生する問題に対応
-            if (Build.VERSION.SDK_INT > 13) urlConnection.setRequestProperty("Connection", "close");
-
-            if (mRequestBody != null) {
-                urlConnection.setRequestProperty("Content-Type", mRequestBody.getContentType());
-                // 送信データサイズをセット
-                urlConnection.setFixedLengthStreamingMode(mRequestBody.getContentLength());
-                // 出力を行うように設定
-                urlConnection.setDoOutput(true);
+            if (mConditionalHeaders != null) {
+                for(Map.Entry<String, String> header : mConditionalHeaders.entrySet()) {
+                    headers.set(header.getKey(), header.getValue());
+                }
             }
-
-            // httpレスポンスを受け取るように設定
-            urlConnection.setDoInput(true);
+            // レジューム時は 圧縮されたデータの途中からは展開できないので、圧縮は受け付けない
+            boolean acceptCompression = (mAcceptCompression && !resumable);
+            headers.set( "Accept-Encoding", (acceptCompression ? HttpContentDecoder.ACCEPT_ENCODING : "") );
+            if (resumable) {
+                // 受信済みの一時ファイルがあれば、その続きから受信する
+                // 取得元のファイルが更新されていた場合は、サーバは If-Rangeを見て 全体(200)を返す
+                resumeOffset = downloadFile.getResumeOffset(requestUrl);
+                if (resumeOffset > 0) {
+                    headers.set("Range", "bytes=" + resumeOffset + "-");
+                    headers.set("If-Range", downloadFile.getResumeValidator(requestUrl));
+                }
+            }
+            if (requestBody != null) headers.set("Content-Type", requestBody.getContentType());
+
+            // 設定毎に共有の SSLSocketFactoryを使用して、TLSセッションを再開できるようにする
+            SSLSocketFactory sslSocketFactory = null;
+            HostnameVerifier hostnameVerifier = null;
+            if ("https".equalsIgnoreCase(url.getProtocol())) {
+                sslSocketFactory = selectSslSocketFactory(hostname);
+                hostnameVerifier = selectHostnameVerifier(hostname);
+            }
+            HttpEngineRequest engineRequest = new HttpEngineRequest(toMethodString(getActiveMethodType()), url, hostname, headers.build(),
+                    requestBody, TIMEOUT_CONNECTION_MILLI_SEC, selectTimeout(responseFile), !forceClose,
+                    sslSocketFactory, hostnameVerifier);
+            exchange = getActiveEngine().newExchange(engineRequest);
+            // abort()で 切断できるように 実行中の送受信を保持する
+            mActiveExchange = exchange;
+            checkAborted();
 
 
             // http リクエスト コネクション
-            int tryCount = MAX_TRY_CONNECTION_COUNT;
-            boolean connected = false;
-            do {
-                try {
-                    // コネクションの確立を試みる
-                    tryCount--;
-                    urlConnection.connect();
-                    connected = true;
-
-                } catch (SocketTimeoutException e) {
-                    // コネクションタイムアウトをチェックする
-                    if (tryCount <= 0) throw e;
-                    // 規定回数に達していない場合は、リトライする
-                }
-            } while (!connected);
+            // 接続の確立に失敗した場合のリトライは、mRetryPolicyに従って 新しい接続で行う
+            if (eventListener != null) {
+                eventListener.connectStart(this, url, System.nanoTime());
+                // TLSのハンドシェイクも 通知されるようにする
+                HttpSslSocketFactory.setConnectingRequest(this);
+            }
+            try {
+                exchange.connect();
+            } finally {
+                if (eventListener != null) HttpSslSocketFactory.setConnectingRequest(null);
+            }
+            reusedConnection = exchange.isReusedConnection();
+            if (eventListener != null) eventListener.connectEnd(this, reusedConnection, System.nanoTime());
+            mRequestSent = true;
+            checkAborted();
 
             // 送信するデータがあれば送る
-            if (mRequestBody != null) {
+            if (requestBody != null) {
+                long sentLength;
                 // try-with-resource構文で close処理を簡略
-                try (DataOutputStream outputStream = new DataOutputStream(urlConnection.getOutputStream())) {
-                    // request bodyを送信
-                    mRequestBody.writeTo(outputStream);
+                try (ExchangeOutputStream outputStream = new ExchangeOutputStream(limitUpload(exchange.getRequestBody()))) {
+                    // bodyの出力ストリームを取得した時点で ヘッダは送信される
+                    if (eventListener != null) eventListener.requestHeadersEnd(this, System.nanoTime());
+                    // request bodyを送信 (送信元のファイル等の 読み込みを含む)
+                    localIo = true;
+                    requestBody.writeTo(outputStream);
+                    localIo = false;
                     outputStream.flush();
+                    sentLength = outputStream.getCount();
                 }
+                if (eventListener != null) eventListener.requestBodyEnd(this, sentLength, System.nanoTime());
+            } else if (eventListener != null) {
+                // bodyがない場合は レスポンスの取得時に ヘッダが送信される
+                eventListener.requestHeadersEnd(this, System.nanoTime());
             }
 
-            // HTTPリクエストの レスポンスを 受け取る
-            try {
-                responseCode = urlConnection.getResponseCode();
+            checkAborted();
 
-            } catch (IOException e) {
-                // apiサーバが status 401の際に 「WWW-Authenticate: ～」をつけてレスポンスを返さない件に対応
-                // 認証系のエラーの場合、401エラーとして継続してみる
-                // 別のエラーの場合は、上位のエラーハンドラーにまかせる
-                String errMsg = e.getMessage();
-                if (errMsg != null && errMsg.toLowerCase(Locale.ENGLISH).contains("authentication")) {
-                    responseCode = 401;
-                } else {
-                    throw e;
-                }
-            }
+            // HTTPリクエストの レスポンスを 受け取る
+            responseCode = exchange.getResponseStatus();
+            if (eventListener != null) eventListener.responseHeadersEnd(this, responseCode, System.nanoTime());
             // レスポンスヘッダを取得する
-            responseHeaders = new HashMap<>();
-            for (Map.Entry<String, List<String>> entry : urlConnection.getHeaderFields().entrySet()) {
-                List<String> values = entry.getValue();
-                responseHeaders.put(entry.getKey(), (values.isEmpty() ? "" : values.get(0)));
-
-                // Cookieの反映も行う
-                if (mCookieUrl != null && "Set-Cookie".equals(entry.getKey())) {
-                    for (String value : values) {
-                        String[] cookies = value.split("; *");  // Cookie名の前の空白も取り除く
-                        for (String cookie : cookies) {
-                            cookieManager.setCookie(mCookieUrl, cookie);
-                        }
-                    }
-                }
+            responseHeaders = exchange.getResponseHeaders();
+
+            // Cookieの反映も行う
+            if (mCookieUrl != null) {
+                HttpCookieJar.getInstance().saveFromResponse(mCookieUrl, responseHeaders.getAll("Set-Cookie"));
             }
 
             // レスポンスの入力ストリームを取得
-            try (InputStream responseStream = (isErrorStatus(responseCode) ? urlConnection.getErrorStream() : urlConnection.getInputStream())) {
+            InputStream rawStream = exchange.getResponseBody();
+            // エラーレスポンスに bodyがない場合は nullが返るので、カラのストリームとして扱う
+            if (rawStream == null) rawStream = new ByteArrayInputStream(new byte[0]);
+            // 通信量の制限は 通信上の(展開前の) バイト数に対して行う
+            rawStream = limitDownload(rawStream);
+            HttpContentDecoder.CountingInputStream countingStream = new HttpContentDecoder.CountingInputStream(rawStream);
+            boolean compressed = false;
+            InputStream decodedStream = countingStream;
+            if (acceptCompression) {
+                decodedStream = HttpContentDecoder.decode(countingStream, responseHeaders.get("Content-Encoding"));
+                compressed = (decodedStream != countingStream);
+            }
+            boolean completed = true;
+            // 転送先で受信し直すリダイレクトの bodyは 出力先に渡さない
+            boolean redirect = (mMaxRedirects > 0 && isRedirectStatus(responseCode) && responseHeaders.get(RESPONSE_HEADER_LOCATION) != null);
+            // 続きからの受信の場合は サーバが返した範囲(開始位置, 全体サイズ)
+            long[] resumeRange = (responseCode == 206 && resumeOffset > 0 ? parseContentRange(responseHeaders.get(RESPONSE_HEADER_CONTENT_RANGE)) : null);
+            try (InputStream responseStream = new ExchangeInputStream(decodedStream)) {
                 // 指定によって、responseの出力形式を切り替える
-                if (responseFile != null) {
-                    // 出力先に Fileが指定されていた場合は、そこに書き出す
-                    toFile(responseFile, responseStream);
+                if (streamListener != null) {
+                    // 受信中のストリームを そのままlistenerに渡す
+                    HttpContentDecoder.CountingInputStream bodyStream = new HttpContentDecoder.CountingInputStream(responseStream);
+                    if (!redirect) {
+                        mStreamDelivered = true;
+                        localIo = true;
+                        streamListener.onResponseStream(new HttpResponse(responseCode, null, responseHeaders, 0, 0), bodyStream);
+                        localIo = false;
+                    }
+                    // listenerが 最後まで読まなかった場合は、接続を再利用しない
+                    completed = (bodyStream.read() == -1);
+                    decodedLength = bodyStream.getCount();
+                } else if (downloadFile != null && (isErrorStatus(responseCode) || responseCode == 304 || redirect)) {
+                    // エラーレスポンスや 304(bodyなし), リダイレクトで 出力先ファイル(一時ファイル)を上書きしない。bodyはバイト配列で返す
+                    responseBytes = toBytes(responseStream, -1);
+                    decodedLength = responseBytes.length;
+                    if (responseCode == 416 && resumeOffset > 0) {
+                        // 一時ファイルの続きの範囲が 取得元のサイズを超えている場合は、最初から受信し直す
+                        retryFresh = true;
+                    }
+                } else if (downloadFile != null && responseCode == 206 && resumeOffset > 0 && (resumeRange == null || resumeRange[0] != resumeOffset)) {
+                    // サーバが返した範囲が 要求した位置からでない場合は 一時ファイルの続きに書き込めないので、
+                    // 416の場合と同じく 最初から受信し直す。bodyは読まないので 接続は再利用しない
+                    completed = false;
+                    retryFresh = true;
+                } else if (downloadFile != null) {
+                    // 出力先に Fileが指定されていた場合は、一時ファイルに書き出してから 置き換える
+                    long offset = 0;
+                    long totalLength = (compressed ? -1 : responseHeaders.getContentLength());
+                    if (resumeRange != null) {
+                        // 続きからの受信
+                        offset = resumeOffset;
+                        totalLength = resumeRange[1];
+                        // 呼び出し元には ファイル全体を受信した場合と同じく 200を返す
+                        responseCode = 200;
+                    }
+                    // 200の場合は サーバが Rangeを無視したか 取得元が更新されているので、先頭から書き直す
+                    localIo = true;
+                    if (resumable) {
+                        downloadFile.saveResumeInfo(requestUrl,
+                                responseHeaders.get(RESPONSE_HEADER_ETAG), responseHeaders.get(RESPONSE_HEADER_LAST_MODIFIED));
+                    } else {
+                        downloadFile.clearResumeInfo();
+                    }
+                    decodedLength = downloadFile.write(responseStream, offset, totalLength);
+                    downloadFile.commit();
+                    localIo = false;
                 } else {
                     // rawデータを メモリで返す（バイト配列）
-                    responseBytes = toBytes(responseStream);
+                    // 非圧縮の場合は Content-Lengthから 受信サイズが分かる
+                    responseBytes = toBytes(responseStream, (compressed ? -1 : responseHeaders.getContentLength()));
+                    decodedLength = responseBytes.length;
                 }
             }
+            receivedLength = countingStream.getCount();
+            if (eventListener != null) eventListener.responseBodyEnd(this, receivedLength, decodedLength, System.nanoTime());
+            // レスポンスを最後まで読み切った接続は、サーバが closeを指定していなければ再利用できる
+            reusable = completed && !forceClose && !"close".equalsIgnoreCase(responseHeaders.get(RESPONSE_HEADER_CONNECTION));
+
+        } catch (EOFException e) {
+            // 受信データが 途中で終わった場合も EOFExceptionとなるので、ローカルの読み書き中でも 通信エラーとして扱う
+            // 再利用した接続が サーバ側で既に切断されていた場合は、新規接続で1度だけやり直す
+            // 再利用したかを判別できない場合は、再送しても問題のない 冪等なメソッドのみ やり直す
+            boolean staleCandidate = (reusedConnection || (!forceClose && isIdempotentMethod()));
+            if (staleCandidate && responseCode == 0 && canResend()) {
+                retryStale = true;
+            } else {
+                responseCode = STATUS_ERROR_FILEIO;
+                mLastError = e;
+            }
 
-        } catch (InterruptedException | SocketException e) {
+        } catch (InterruptedException e) {
             responseCode = STATUS_INTERRUPTED;
 
+        } catch (SocketException e) {
+            responseCode = STATUS_INTERRUPTED;
+            // abort()以外での切断(接続のリセット等)は リトライの対象とする
+            mLastError = e;
+
         } catch (SocketTimeoutException e) {
             responseCode = STATUS_ERROR_TIMEOUT;
+            mLastError = e;
 
         } catch (SecurityException e ) {
             responseCode = STATUS_ERROR_PERMISSION;
 
-        } catch(MalformedURLException | URISyntaxException e) {
+        } catch(MalformedURLException e) {
             responseCode = STATUS_ERROR_INTERNAL;
 
         } catch (IOException e ) {
             responseCode = STATUS_ERROR_FILEIO;
+            // ファイル等の ローカルの読み書きのエラーは、リトライしても解消しないので 通信エラーとしない
+            if (!localIo || mExchangeFailed) mLastError = e;
 
         } finally {
-            if (urlConnection != null) urlConnection.disconnect();
-            if (isErrorStatus(responseCode)) {
-                // 失敗した受信ファイルを削除
-                if (responseFile != null && responseFile.exists()) responseFile.delete();
+            mActiveExchange = null;
+            if (mAborted) {
+                // 中断により 切断された場合は、発生した例外の種類によらず 中断として扱う
+                responseCode = STATUS_INTERRUPTED;
+                reusable = false;
+                retryStale = false;
+                retryFresh = false;
+                mLastError = null;
             }
+            // keep-alive接続は 切断せずに エンジンのプールに戻す
+            if (exchange != null) exchange.release(reusable);
+            // 受信に失敗した場合、出力先ファイルは 元の状態のまま残る
+            // 受信途中の一時ファイルは 受信できた分だけ残しておく
         }
 
-        return new HttpResponse(responseCode, responseBytes, responseHeaders);
+        if (retryStale) return executeRequest(requestUrl, responseFile, streamListener, true);
+        if (retryFresh) {
+            downloadFile.discard();
+            return executeRequest(requestUrl, responseFile, streamListener, forceClose);
+        }
+        return new HttpResponse(responseCode, responseBytes, responseHeaders, receivedLength, decodedLength);
     }
 
 
-    private byte[] toBytes(InputStream is) throws InterruptedException, IOException {
-        byte[] buffer = new byte[ BUFF_SIZE ];
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-
-        try (BufferedInputStream inputStream = new BufferedInputStream(is, BUFF_SIZE);
-            OutputStream outputStream = new BufferedOutputStream(bytes)) {
+    /**
+     * レスポンスを バイト配列に読み込む
+     * サイズが分かっている場合は、その大きさの配列に直接読み込むので 中間バッファのコピーは発生しない
+     * @param is 入力ストリーム
+     * @param contentLength レスポンスのサイズ。不明な場合は -1
+     * @return 受信データ
+     */
+    byte[] toBytes(InputStream is, long contentLength) throws InterruptedException, IOException {
+        if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE - 8) {
+            byte[] bytes = new byte[ (int)contentLength ];
+            int offset = 0;
             int count = 0;
             int size;
-            while ((size = inputStream.read(buffer, 0, BUFF_SIZE)) != -1) {
-                outputStream.write(buffer, 0, size);
+            while (offset < bytes.length && (size = is.read(bytes, offset, Math.min(BUFF_SIZE, bytes.length - offset))) != -1) {
+                offset += size;
                 // interruptのチェック用処理
                 if (++count >= COUNT_CHECK_INTERRUPT) {
                     // 割り込みを受け付けるように sleep()を呼んでおく
                     Thread.sleep(0, 1);
+                    checkAborted();
                     count = 0;
                 }
             }
-            outputStream.flush();
+            if (offset < bytes.length) {
+                // Content-Lengthより 短かった場合は、受信した分だけ返す
+                byte[] shortBytes = new byte[ offset ];
+                System.arraycopy(bytes, 0, shortBytes, 0, offset);
+                return shortBytes;
+            }
+            int next = is.read();
+            if (next == -1) return bytes;
+
+            // Content-Lengthより 長かった場合は、確認のために読んだ 1バイトと 残りを追加で読み込む
+            ByteArrayOutputStream rest = new ByteArrayOutputStream(bytes.length + BUFF_SIZE);
+            rest.write(bytes);
+            rest.write(next);
+            copy(is, rest);
+            return rest.toByteArray();
         }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFF_SIZE);
+        copy(is, bytes);
         return bytes.toByteArray();
     }
 
-    private void toFile(File file, InputStream is) throws InterruptedException, IOException, SecurityException {
-        // 出力先に Fileが指定されていた場合は、そこに書き出す
+    private void copy(InputStream is, OutputStream outputStream) throws InterruptedException, IOException {
         byte[] buffer = new byte[ BUFF_SIZE ];
-
-        try (DataInputStream inResStream = new DataInputStream(is);
-            FileOutputStream outResStream = new FileOutputStream(file)) {
-            int count = 0;
-            int size;
-            while((size = inResStream.read(buffer)) != -1) {
-                outResStream.write(buffer, 0, size);
-                // interruptのチェック用処理
-                if (++count >= COUNT_CHECK_INTERRUPT) {
-                    // 割り込みを受け付けるように sleep()を呼んでおく
-                    Thread.sleep(0, 1);
-                    count = 0;
-                }
+        int count = 0;
+        int size;
+        while ((size = is.read(buffer, 0, BUFF_SIZE)) != -1) {
+            outputStream.write(buffer, 0, size);
+            // interruptのチェック用処理
+            if (++count >= COUNT_CHECK_INTERRUPT) {
+                // 割り込みを受け付けるように sleep()を呼んでおく
+                Thread.sleep(0, 1);
+                checkAborted();
+                count = 0;
             }
         }
     }
 
-    // 自己署名証明書（オレオレ証明書）サイトに接続させるためのパッチ処理
-    private void ignoreCertificateSsl(HttpsURLConnection httpsConnection)  {
-        // 証明書チェーンの検証をスキップ
-        KeyManager[] keyManagers = null;
-        TrustManager[] transManagers = {
-                new X509TrustManager() {
-                    public X509Certificate[] getAcceptedIssuers() {
-                        return new X509Certificate[0];
-                    }
-                    @Override
-                    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-                    }
-                    @Override
-                    public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-                    }
-                }
-        };
-
+    /**
+     * Content-Rangeヘッダ(bytes 開始-終了/全体サイズ)を解析する
+     * @param contentRange Content-Rangeヘッダの値
+     * @return {開始位置, 全体サイズ}。全体サイズが不明(*)の場合は -1。解析できない場合は null
+     */
+    static long[] parseContentRange(String contentRange) {
+        if (contentRange == null) return null;
+        String value = contentRange.trim();
+        if (!value.startsWith("bytes ")) return null;
+        int ptrDash = value.indexOf('-');
+        int ptrSlash = value.indexOf('/');
+        if (ptrDash < 0 || ptrSlash < ptrDash) return null;
         try {
-            SSLContext sslcontext = SSLContext.getInstance("SSL");
-            sslcontext.init(keyManagers, transManagers, new SecureRandom());
+            long start = Long.parseLong(value.substring(6, ptrDash).trim());
+            String total = value.substring(ptrSlash + 1).trim();
+            return new long[] { start, ("*".equals(total) ? -1 : Long.parseLong(total)) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // https接続に使用する SSLSocketFactory。自己署名証明書の許可や 指定された SSLSocketFactoryを反映する
+    // hostnameは アドレスで接続する場合の 元のホスト名 (ホスト名で接続する場合は null)
+    private SSLSocketFactory selectSslSocketFactory(String hostname) {
+        SSLSocketFactory sslSocketFactory = mSslSocketFactory;
+        if (mIgnoreCertificateSsl) {
+            // 自己署名証明書（オレオレ証明書）サイトに接続させるためのパッチ
+            // 証明書チェーンの検証をスキップする SSLSocketFactoryを使用する
+            sslSocketFactory = HttpSslSocketFactory.getTrustAll();
+        }
+        if (sslSocketFactory == null) sslSocketFactory = HttpSslSocketFactory.getSystemDefault();
+        // SNIと TLSセッションの再開には 元のホスト名を使用する
+        if (hostname != null) sslSocketFactory = HttpSslSocketFactory.forHostname(sslSocketFactory, hostname);
+        return sslSocketFactory;
+    }
 
+    // https接続の ホスト名の検証。エンジンの既定の検証を行う場合は null
+    private HostnameVerifier selectHostnameVerifier(String hostname) {
+        if (mIgnoreCertificateSsl) {
             // 証明書に書かれているCommon NameとURLのホスト名が一致していることの検証をスキップ
-            httpsConnection.setHostnameVerifier(new HostnameVerifier() {
-                @Override
-                public boolean verify(String hostname, SSLSession session) {
-                    return true;
-                }
-            });
+            return HttpSslSocketFactory.TRUST_ALL_HOSTNAME_VERIFIER;
+        } else if (hostname != null) {
+            // 証明書は アドレスではなく 元のホスト名で検証する
+            return HttpSslSocketFactory.verifierForHostname(hostname);
+        }
+        return null;
+    }
+
+    // 送信用ストリームに リクエスト毎, および全体の 通信量の制限を適用する
+    private OutputStream limitUpload(OutputStream outputStream) {
+        HttpBandwidthLimiter defaultLimiter = sDefaultBandwidthLimiter;
+        if (mBandwidthLimiter != null) outputStream = mBandwidthLimiter.limitUpload(outputStream, this);
+        if (defaultLimiter != null && defaultLimiter != mBandwidthLimiter) outputStream = defaultLimiter.limitUpload(outputStream, this);
+        return outputStream;
+    }
 
-            // 自己署名証明書を エラーとしない SSLSocketFactoryを設定する
-            httpsConnection.setSSLSocketFactory(sslcontext.getSocketFactory());
+    // 受信用ストリームに リクエスト毎, および全体の 通信量の制限を適用する
+    private InputStream limitDownload(InputStream inputStream) {
+        HttpBandwidthLimiter defaultLimiter = sDefaultBandwidthLimiter;
+        if (mBandwidthLimiter != null) inputStream = mBandwidthLimiter.limitDownload(inputStream, this);
+        if (defaultLimiter != null && defaultLimiter != mBandwidthLimiter) inputStream = defaultLimiter.limitDownload(inputStream, this);
+        return inputStream;
+    }
 
-        } catch (NoSuchAlgorithmException | KeyManagementException e) {
-            //e.printStackTrace();
+    // IPアドレス表記のホストか (名前解決が不要か)
+    private static boolean isIpAddress(String host) {
+        if (host == null || host.isEmpty()) return true;
+        if (host.indexOf(':') >= 0 || host.startsWith("[")) return true;
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) return false;
         }
+        return true;
+    }
+
+    // URLのホスト部に指定する アドレスの表記 (IPv6の場合は []で囲む)
+    private static String toHostLiteral(InetAddress address) {
+        String literal = address.getHostAddress();
+        return (address instanceof Inet6Address ? "[" + literal + "]" : literal);
     }
 
 
@@ -502,18 +1324,26 @@ public class HttpRequest {
     // Interface
     //
 
-    private interface IRequestBody {
-
-        String getContentType();
-
-        int getContentLength();
-
-        void writeTo(OutputStream outStream) throws IOException, InterruptedException;
+    public interface OnResponseStreamListener {
+        /**
+         * レスポンスbodyの 受信中のストリームを受け取る。ストリームの closeは呼び出し側で行う
+         * @param response ステータスとヘッダ (レスポンスbodyのバイト配列は含まない)
+         * @param body レスポンスbody (圧縮されていた場合は展開後のデータ)
+         */
+        void onResponseStream(HttpResponse response, InputStream body) throws IOException, InterruptedException;
     }
 
+    public interface OnResponseChunkListener {
+        /**
+         * 受信したデータを受け取る。bufferの内容は 呼び出しから戻った後に上書きされる
+         * @param response ステータスとヘッダ (レスポンスbodyのバイト配列は含まない)
+         * @param buffer 受信データ
+         * @param length 受信データのバイト数
+         */
+        void onResponseChunk(HttpResponse response, byte[] buffer, int length) throws IOException, InterruptedException;
+    }
 
-    private class RequestBodyEntity implements IRequestBody {
-        private static final String CONTENT_TYPE_OCTET_STREAM = "application/octet-stream";
+    private class RequestBodyEntity extends HttpRequestBody {
         private final static String CONTENT_TYPE_WWW_FORM = "application/x-www-form-urlencoded";
 
         private byte[] mRequestBody;
@@ -537,7 +1367,7 @@ public class HttpRequest {
         }
 
         @Override
-        public int getContentLength() {
+        public long getContentLength() {
             return (mRequestBody != null ? mRequestBody.length : 0);
         }
 
@@ -547,157 +1377,88 @@ public class HttpRequest {
         }
     }
 
+    // 受信用ストリームのエラーを 通信エラーとして記録する
+    private class ExchangeInputStream extends FilterInputStream {
 
-    private class MultipartEntity implements IRequestBody {
-        private final String mBoundary;
-        private final String mBoundaryStart;
-        private final String mBoundaryEnd;
-        private byte[] mBytesBoundaryEnd;
-
-        private ByteArrayOutputStream mFormDataPart = new ByteArrayOutputStream();
-        private List<FilePartEntity> mFilePart = new ArrayList<>();
-
-
-        public MultipartEntity(List<HttpParameter> params) throws UnsupportedEncodingException, IOException {
-            // バウンダリー文字列生成
-            mBoundary = UUID.randomUUID().toString();
-            // 終端用バウンダリー設定
-            mBoundaryStart = "--" + mBoundary + "\r\n";
-            mBoundaryEnd = "--" + mBoundary + "--\r\n";
-            mBytesBoundaryEnd = mBoundaryEnd.getBytes(ENCODING);
-
-            addEntities(params);
-        }
-
-        // マルチパート用 Content-Typeを返す
-        public String getContentType() {
-            return "multipart/form-data; boundary=" + mBoundary;
+        ExchangeInputStream(InputStream in) {
+            super(in);
         }
 
-        // multipartデータのサイズを返す
-        public int getContentLength() {
-            // 送信するパートが 何もなければ、0を返す
-            if (!hasEntity()) return 0;
-
-            int length = mFormDataPart.toByteArray().length + mBytesBoundaryEnd.length;
-            for (FilePartEntity fileEntity : mFilePart) {
-                length += fileEntity.getContentLength();
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                mExchangeFailed = true;
+                throw e;
             }
-            return length;
         }
 
-        // multipartデータの 出力を行う
-        // OutputStreamの close処理は呼び出し側で行う
-        public void writeTo(OutputStream outStream) throws IOException, InterruptedException {
-            // 送信するパートが 何もなければ、0サイズの書き込みを行う。終了バウンダリーの書き込みも行わない
-            if (!hasEntity()) {
-                outStream.write(new byte[0]);
-                return;
-            }
-            // form dataパートの出力
-            outStream.write(mFormDataPart.toByteArray());
-            // Fileパートの 出力
-            for (FilePartEntity fileEntity : mFilePart) {
-                fileEntity.writeTo(outStream);
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                return super.read(buffer, offset, length);
+            } catch (IOException e) {
+                mExchangeFailed = true;
+                throw e;
             }
-            // multipart ENDデータを出力
-            outStream.write(mBytesBoundaryEnd);
         }
 
-
-        public void addEntities(List<HttpParameter> params) throws IOException {
-            if (params == null) return;
-            for (HttpParameter param : params) {
-                addEntity(param);
+        @Override
+        public long skip(long n) throws IOException {
+            try {
+                return super.skip(n);
+            } catch (IOException e) {
+                mExchangeFailed = true;
+                throw e;
             }
         }
+    }
 
-        public void addEntity(HttpParameter param) throws IOException {
-            if (param == null) return;
-
-            if (param.hasFile()) {
-                // form data パートの登録を行う
-                mFilePart.add(new FilePartEntity(param.getName(), param.getFile(), param.getMimeType()));
+    // 送信用ストリームのエラーを 通信エラーとして記録する。送信したバイト数も数える (2GBを超える場合があるので long)
+    private class ExchangeOutputStream extends FilterOutputStream {
+        private long mCount = 0;
 
-            } else {
-                // form data パートの登録を行う
-                // keyが指定されているか確認する
-                String key = param.getName();
-                if (key == null || key.length() == 0) return;
-
-                String value = param.getValue();
-                mFormDataPart.write(mBoundaryStart.getBytes(ENCODING));
-                mFormDataPart.write(("Content-Disposition: form-data; name=\"" + key + "\"\r\n").getBytes(ENCODING));
-                mFormDataPart.write(("Content-Type: text/plain; charset=" + ENCODING + "\r\n").getBytes(ENCODING));
-                mFormDataPart.write("Content-Transfer-Encoding: 8bit\r\n\r\n".getBytes(ENCODING));
-                mFormDataPart.write((value!=null ? value : "").getBytes(ENCODING));
-                mFormDataPart.write(("\r\n").getBytes(ENCODING));
-            }
+        ExchangeOutputStream(OutputStream out) {
+            super(out);
         }
 
+        long getCount() {
+            return mCount;
+        }
 
-        private boolean hasEntity() {
-            return (mFormDataPart.size() >= 1 || mFilePart.size() >= 1);
-        }
-
-        private class FilePartEntity {
-            private byte[] mPartHeader;
-            private byte[] mPartBottom;
-            private File mFile = null;
-            private long mFileLength = 0;
-
-            /**
-             * コンストラクタ
-             * @param key パラメータ名
-             * @param file 送信するFile
-             * @param mimeType 送信するファイルの contentType
-             * @throws IOException
-             */
-            public FilePartEntity (String key, File file, String mimeType) throws IOException {
-                // keyが指定されているか確認する
-                if (key == null || key.length() == 0) return;
-                if (file == null) return;
-                mFile = file;
-                mFileLength = file.length();
-
-                // マルチパート間の ヘッダー部分を登録
-                String header = mBoundaryStart
-                        + "Content-Disposition: form-data; name=\""+ key +"\"; filename=\"" + file.getName() + "\"\r\n"
-                        + "Content-Type: " + mimeType + "\r\n"
-                        + "Content-Transfer-Encoding: binary\r\n\r\n" ;
-                mPartHeader = header.getBytes(ENCODING);
-                mPartBottom = ("\r\n").getBytes(ENCODING);
+        @Override
+        public void write(int data) throws IOException {
+            try {
+                out.write(data);
+                mCount++;
+            } catch (IOException e) {
+                mExchangeFailed = true;
+                throw e;
             }
+        }
 
-            /**
-             * 送信する コンテンツのバイト数を返す
-             * @return バイト数
-             */
-            public long getContentLength() {
-                if (mFile == null) return 0;
-                return mPartHeader.length + mFileLength + mPartBottom.length;
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                // FilterOutputStreamは 1バイトずつ書き込むので、まとめて書き込む
+                out.write(buffer, offset, length);
+                mCount += length;
+            } catch (IOException e) {
+                mExchangeFailed = true;
+                throw e;
             }
+        }
 
-            // OutputStreamの close処理は呼び出し側で行う
-            public void writeTo(OutputStream outStream) throws IOException, InterruptedException, SecurityException {
-                if (mFile == null) return;
-
-                // multipartの Fileデータを送信する
-                byte[] buffer = new byte[ BUFF_SIZE ];
-                outStream.write(mPartHeader);
-                // 送信用ファイルについては、ここで try-with-resourceでcloseする
-                try (BufferedInputStream inDataStream = new BufferedInputStream(new FileInputStream(mFile), BUFF_SIZE)) {
-                    int count;
-                    while ((count = inDataStream.read(buffer, 0, BUFF_SIZE)) != -1) {
-                        outStream.write(buffer, 0, count);
-                        // 割り込みを受け付けるように sleep()を呼んでおく
-                        Thread.sleep(0, 10);
-                    }
-                }
-                outStream.write(mPartBottom);
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                mExchangeFailed = true;
+                throw e;
             }
         }
-
     }
 
 }
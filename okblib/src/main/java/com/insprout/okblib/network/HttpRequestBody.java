@@ -0,0 +1,187 @@
+package com.insprout.okblib.network;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * HttpRequestで送信する request body
+ * HttpRequest.setContent(HttpRequestBody)で そのまま送信するか、HttpParameterで multipartの 1パートとして送信する。
+ * サイズが分かっている場合は 固定長で、不明な場合(-1)は chunked形式で 送信データを 読み込みながら送信する
+ */
+
+public abstract class HttpRequestBody {
+    public final static String CONTENT_TYPE_OCTET_STREAM = "application/octet-stream";
+
+    private final static int BUFF_SIZE = 16 * 1024;
+
+
+    // 送信データの Content-Type
+    public abstract String getContentType();
+
+    // 送信データのバイト数。不明な場合は -1
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * 送信データを 繰り返し送信できるか
+     * falseの場合は 送信後の リトライや bodyを引き継ぐリダイレクト(307, 308)を行わない
+     * @return 繰り返し送信できる場合は true
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * 送信データを出力する
+     * OutputStreamの close処理は呼び出し側で行う
+     * @param outStream 出力先
+     */
+    public abstract void writeTo(OutputStream outStream) throws IOException, InterruptedException;
+
+
+    /**
+     * InputStreamから 読み込みながら送信する request bodyを作成する
+     * InputStreamは 送信後に closeする。1度しか送信できないので、送信後のリトライは行わない
+     * @param inputStream 送信データ
+     * @param contentLength 送信データのバイト数。不明な場合は -1
+     * @param contentType Content-Type。nullの場合は application/octet-stream
+     * @return request body
+     */
+    public static HttpRequestBody create(final InputStream inputStream, final long contentLength, String contentType) {
+        final String type = (contentType != null ? contentType : CONTENT_TYPE_OCTET_STREAM);
+        return new HttpRequestBody() {
+            private boolean mConsumed = false;
+
+            @Override
+            public String getContentType() {
+                return type;
+            }
+
+            @Override
+            public long getContentLength() {
+                return contentLength;
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return false;
+            }
+
+            @Override
+            public void writeTo(OutputStream outStream) throws IOException, InterruptedException {
+                synchronized (this) {
+                    if (mConsumed) throw new IOException("request body already consumed");
+                    mConsumed = true;
+                }
+                try (InputStream is = inputStream) {
+                    copy(is, outStream);
+                }
+            }
+        };
+    }
+
+    /**
+     * ByteBufferの position から limit までを送信する request bodyを作成する
+     * ByteBufferの positionは 変更しない。ヒープ上の ByteBufferは 配列をコピーせずに そのまま送信する
+     * @param buffer 送信データ
+     * @param contentType Content-Type。nullの場合は application/octet-stream
+     * @return request body
+     */
+    public static HttpRequestBody create(ByteBuffer buffer, String contentType) {
+        final ByteBuffer source = buffer.duplicate();
+        final String type = (contentType != null ? contentType : CONTENT_TYPE_OCTET_STREAM);
+        return new HttpRequestBody() {
+            @Override
+            public String getContentType() {
+                return type;
+            }
+
+            @Override
+            public long getContentLength() {
+                return source.remaining();
+            }
+
+            @Override
+            public void writeTo(OutputStream outStream) throws IOException {
+                if (source.hasArray()) {
+                    outStream.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+                    return;
+                }
+                // direct bufferは バッファ単位で 取り出して送信する
+                ByteBuffer data = source.duplicate();
+                byte[] chunk = new byte[ Math.min(BUFF_SIZE, data.remaining()) ];
+                while (data.hasRemaining()) {
+                    int size = Math.min(chunk.length, data.remaining());
+                    data.get(chunk, 0, size);
+                    outStream.write(chunk, 0, size);
+                }
+            }
+        };
+    }
+
+    /**
+     * content Uri(カメラで撮影した画像, 共有されたファイル等)の内容を 読み込みながら送信する request bodyを作成する
+     * 送信の度に Uriを開き直すので、リトライや リダイレクトでも 送信できる
+     * @param context コンテキスト
+     * @param uri 送信する内容の Uri
+     * @param contentType Content-Type。nullの場合は ContentResolverから取得する
+     * @return request body
+     */
+    public static HttpRequestBody create(Context context, final Uri uri, String contentType) {
+        final ContentResolver resolver = context.getContentResolver();
+        String type = (contentType != null ? contentType : resolver.getType(uri));
+        final String resolvedType = (type != null ? type : CONTENT_TYPE_OCTET_STREAM);
+        final long contentLength = getLength(resolver, uri);
+        return new HttpRequestBody() {
+            @Override
+            public String getContentType() {
+                return resolvedType;
+            }
+
+            @Override
+            public long getContentLength() {
+                return contentLength;
+            }
+
+            @Override
+            public void writeTo(OutputStream outStream) throws IOException, InterruptedException {
+                try (InputStream is = resolver.openInputStream(uri)) {
+                    if (is == null) throw new IOException("cannot open " + uri);
+                    copy(is, outStream);
+                }
+            }
+        };
+    }
+
+    // Uriの内容の バイト数。不明な場合は -1
+    private static long getLength(ContentResolver resolver, Uri uri) {
+        try (AssetFileDescriptor descriptor = resolver.openAssetFileDescriptor(uri, "r")) {
+            if (descriptor == null) return -1;
+            long length = descriptor.getLength();
+            return (length != AssetFileDescriptor.UNKNOWN_LENGTH ? length : -1);
+
+        } catch (IOException | RuntimeException e) {
+            // サイズが取得できない場合は chunked形式で送信する。開けない場合は 送信時にエラーとなる
+            return -1;
+        }
+    }
+
+    private static void copy(InputStream is, OutputStream outStream) throws IOException, InterruptedException {
+        byte[] buffer = new byte[ BUFF_SIZE ];
+        int count;
+        while ((count = is.read(buffer, 0, BUFF_SIZE)) != -1) {
+            outStream.write(buffer, 0, count);
+            // 割り込みのチェック (sleep()はせずに フラグのみ確認する)
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+}
@@ -36,6 +36,11 @@ public class HttpRequestTask extends AsyncTask<File, Void, HttpResponse> {
         return this;
     }
 
+    public HttpRequestTask setContent(HttpRequestBody requestBody) {
+        mApiRequest.setContent(requestBody);
+        return this;
+    }
+
     public HttpRequestTask setAuthorization(String user, String password) {
         mApiRequest.setAuthorization(user, password);
         return this;
@@ -52,6 +57,26 @@ public class HttpRequestTask extends AsyncTask<File, Void, HttpResponse> {
         return this;
     }
 
+    public HttpRequestTask keepAlive(boolean keepAlive) {
+        mApiRequest.keepAlive(keepAlive);
+        return this;
+    }
+
+    public HttpRequestTask resumeDownload(boolean resume) {
+        mApiRequest.resumeDownload(resume);
+        return this;
+    }
+
+    public HttpRequestTask segmentedDownload(int maxSegments) {
+        mApiRequest.segmentedDownload(maxSegments);
+        return this;
+    }
+
+    public HttpRequestTask acceptCompression(boolean accept) {
+        mApiRequest.acceptCompression(accept);
+        return this;
+    }
+
     public HttpRequestTask syncCookie(String url) {
         mApiRequest.syncCookie(url);
         return this;
@@ -62,6 +87,75 @@ public class HttpRequestTask extends AsyncTask<File, Void, HttpResponse> {
         return this;
     }
 
+    public HttpRequestTask setDiskCache(HttpDiskCache cache) {
+        mApiRequest.setDiskCache(cache);
+        return this;
+    }
+
+    public HttpRequestTask setMemoryCache(HttpMemoryCache cache, long ttlMilliSec) {
+        mApiRequest.setMemoryCache(cache, ttlMilliSec);
+        return this;
+    }
+
+    // 通信エラーや 一時的なエラーの場合の リトライの方針を指定。nullの場合は リトライしない
+    public HttpRequestTask setRetryPolicy(HttpRetryPolicy retryPolicy) {
+        mApiRequest.setRetryPolicy(retryPolicy);
+        return this;
+    }
+
+    public HttpRequestTask setDns(HttpDns dns) {
+        mApiRequest.setDns(dns);
+        return this;
+    }
+
+    public HttpRequestTask setEventListener(HttpEventListener eventListener) {
+        mApiRequest.setEventListener(eventListener);
+        return this;
+    }
+
+    public HttpRequestTask setBandwidthLimiter(HttpBandwidthLimiter bandwidthLimiter) {
+        mApiRequest.setBandwidthLimiter(bandwidthLimiter);
+        return this;
+    }
+
+    public HttpRequestTask setEngine(HttpEngine engine) {
+        mApiRequest.setEngine(engine);
+        return this;
+    }
+
+    // 一括キャンセル用のタグを指定。HttpRequest.cancelAll(tag)で まとめて中断できる
+    public HttpRequestTask setTag(Object tag) {
+        mApiRequest.setTag(tag);
+        return this;
+    }
+
+    /**
+     * 通信を中断する。AsyncTask.cancel()と異なり、スレッドへの割り込みを行わずに 接続を切断する
+     * 中断した場合、OnResponseListenerは呼び出されない
+     */
+    public void abort() {
+        cancel(false);
+        mApiRequest.abort();
+    }
+
+
+    /**
+     * AsyncTaskの SERIAL_EXECUTORではなく、デフォルトの HttpDispatcherで並列に実行する
+     * @param params レスポンスの出力先ファイル (省略時は バイト配列で受け取る)
+     */
+    public HttpRequestTask executeOnDispatcher(File... params) {
+        return executeOnDispatcher(HttpDispatcher.getDefault(), params);
+    }
+
+    /**
+     * 指定された HttpDispatcherで並列に実行する。結果は AsyncTaskと同様に メインスレッドで通知する
+     * @param dispatcher 実行に使用する HttpDispatcher
+     * @param params レスポンスの出力先ファイル (省略時は バイト配列で受け取る)
+     */
+    public HttpRequestTask executeOnDispatcher(HttpDispatcher dispatcher, File... params) {
+        executeOnExecutor(dispatcher.getExecutor(mApiRequest.getHost()), params);
+        return this;
+    }
 
     @Override
     protected HttpResponse doInBackground(File... params) {
@@ -70,7 +164,8 @@ public class HttpRequestTask extends AsyncTask<File, Void, HttpResponse> {
 
     @Override
     protected void onPostExecute(HttpResponse response) {
-        if (mListener != null && !isCancelled()) {
+        // abort()や HttpRequest.cancelAll()で 中断された場合は 通知しない
+        if (mListener != null && !isCancelled() && !mApiRequest.isAborted()) {
             mListener.onResponse(response);
         }
     }
@@ -1,6 +1,7 @@
 package com.insprout.okblib.network;
 
 import java.io.UnsupportedEncodingException;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -11,12 +12,31 @@ import java.util.Map;
 public class HttpResponse {
     private int mHttpStatus;
     private byte[] mResponseBytes;
-    private Map<String, String> mResponseHeaders;
+    private HttpHeaders mResponseHeaders;
+    private long mReceivedLength;
+    private long mDecodedLength;
+    private boolean mFromCache = false;
 
+    /**
+     * @deprecated ヘッダを HttpHeadersで指定する HttpResponse(int, byte[], HttpHeaders, long, long)を使用すること
+     */
+    @Deprecated
     public HttpResponse(int httpStatus, byte[] responseBytes, Map<String, String> responseHeaders) {
+        this(httpStatus, responseBytes, toHttpHeaders(responseHeaders),
+                (responseBytes != null ? responseBytes.length : 0), (responseBytes != null ? responseBytes.length : 0));
+    }
+
+    // bodyと ヘッダのないレスポンス (通信エラー等)
+    HttpResponse(int httpStatus) {
+        this(httpStatus, null, null, 0, 0);
+    }
+
+    public HttpResponse(int httpStatus, byte[] responseBytes, HttpHeaders responseHeaders, long receivedLength, long decodedLength) {
         mHttpStatus = httpStatus;
         mResponseBytes = responseBytes;
-        mResponseHeaders = responseHeaders;
+        mResponseHeaders = (responseHeaders != null ? responseHeaders : HttpHeaders.empty());
+        mReceivedLength = receivedLength;
+        mDecodedLength = decodedLength;
     }
 
     public String getResponseBody() {
@@ -36,15 +56,52 @@ public class HttpResponse {
         return mResponseBytes;
     }
 
+    // 通信上の(圧縮された状態の) レスポンスbodyのバイト数
+    public long getReceivedLength() {
+        return mReceivedLength;
+    }
+
+    // 展開後の レスポンスbodyのバイト数
+    public long getDecodedLength() {
+        return mDecodedLength;
+    }
+
+    // キャッシュから返されたレスポンスか
+    public boolean isFromCache() {
+        return mFromCache;
+    }
+
+    void setFromCache(boolean fromCache) {
+        mFromCache = fromCache;
+    }
+
     public int getHttpStatus() {
         return mHttpStatus;
     }
 
-    public String getResponseHeader(String headerName) {
-        if (mResponseHeaders == null) return null;
-        if (!mResponseHeaders.containsKey(headerName)) return null;
+    // レスポンスヘッダ (同じ名前のヘッダの 全ての値を含む)
+    public HttpHeaders getHeaders() {
+        return mResponseHeaders;
+    }
 
+    // ヘッダ名の 大文字/小文字を区別せずに、最初のヘッダの値を返す
+    public String getResponseHeader(String headerName) {
         return mResponseHeaders.get(headerName);
     }
 
+    // ヘッダ名の 大文字/小文字を区別せずに、全てのヘッダの値を返す
+    public List<String> getResponseHeaders(String headerName) {
+        return mResponseHeaders.getAll(headerName);
+    }
+
+    private static HttpHeaders toHttpHeaders(Map<String, String> headers) {
+        if (headers == null) return null;
+        HttpHeaders.Builder builder = new HttpHeaders.Builder();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            // ステータス行(キーがnull)は 含めない
+            if (header.getKey() != null) builder.add(header.getKey(), header.getValue());
+        }
+        return builder.build();
+    }
+
 }
@@ -0,0 +1,164 @@
+package com.insprout.okblib.network;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.net.ssl.SSLHandshakeException;
+
+/**
+ * HttpRequestクラスで使用する リトライの方針
+ * 通信エラー(タイムアウト, 接続のリセット等)や 一時的なエラーを示す statusの場合に、待機時間を空けて 新しい接続でリトライする。
+ * 待機時間は リトライ毎に 指数的に増やし、ランダムな揺らぎ(jitter)を加える。サーバが Retry-Afterを返した場合は それに従う。
+ * 判定を変更する場合は、このクラスを継承して getRetryDelay()等を オーバーライドする
+ */
+
+public class HttpRetryPolicy {
+    public final static int DEFAULT_MAX_RETRIES = 2;
+    public final static long DEFAULT_INITIAL_DELAY_MILLI_SEC = 500;
+    public final static long DEFAULT_MAX_DELAY_MILLI_SEC = 10000;
+    public final static long DEFAULT_MAX_TOTAL_MILLI_SEC = 30000;
+    private final static double DEFAULT_MULTIPLIER = 2.0;
+    private final static double DEFAULT_JITTER = 0.5;
+    private final static Integer[] DEFAULT_RETRY_STATUSES = { 408, 429, 502, 503, 504 };
+    private final static String RESPONSE_HEADER_RETRY_AFTER = "Retry-After";
+
+    private final static Random sRandom = new Random();
+
+    private int mMaxRetries = DEFAULT_MAX_RETRIES;
+    private long mInitialDelayMilliSec = DEFAULT_INITIAL_DELAY_MILLI_SEC;
+    private long mMaxDelayMilliSec = DEFAULT_MAX_DELAY_MILLI_SEC;
+    private long mMaxTotalMilliSec = DEFAULT_MAX_TOTAL_MILLI_SEC;
+    private double mMultiplier = DEFAULT_MULTIPLIER;
+    private double mJitter = DEFAULT_JITTER;
+    private boolean mRetryNonIdempotent = false;
+    private boolean mHonorRetryAfter = true;
+    private final Set<Integer> mRetryStatuses = new HashSet<>(Arrays.asList(DEFAULT_RETRY_STATUSES));
+
+
+    // リトライの 最大回数 (最初の実行は含まない)
+    public HttpRetryPolicy setMaxRetries(int maxRetries) {
+        mMaxRetries = Math.max(maxRetries, 0);
+        return this;
+    }
+
+    // 1回目のリトライまでの待機時間と、待機時間の上限(ミリ秒)
+    public HttpRetryPolicy setDelay(long initialDelayMilliSec, long maxDelayMilliSec) {
+        mInitialDelayMilliSec = Math.max(initialDelayMilliSec, 0);
+        mMaxDelayMilliSec = Math.max(maxDelayMilliSec, mInitialDelayMilliSec);
+        return this;
+    }
+
+    // リトライ毎に 待機時間を何倍にするか
+    public HttpRetryPolicy setMultiplier(double multiplier) {
+        mMultiplier = Math.max(multiplier, 1.0);
+        return this;
+    }
+
+    // 待機時間を ランダムに短くする割合 (0.0～1.0)。0.5の場合は 待機時間の 50%～100%の間で待機する
+    public HttpRetryPolicy setJitter(double jitter) {
+        mJitter = Math.min(Math.max(jitter, 0.0), 1.0);
+        return this;
+    }
+
+    // 最初の実行から リトライを行う時間の上限(ミリ秒)。待機後に この時間を超える場合は リトライしない
+    public HttpRetryPolicy setMaxTotalTime(long maxTotalMilliSec) {
+        mMaxTotalMilliSec = maxTotalMilliSec;
+        return this;
+    }
+
+    // リトライする status
+    public HttpRetryPolicy setRetryStatuses(int... statuses) {
+        mRetryStatuses.clear();
+        if (statuses != null) {
+            for (int status : statuses) mRetryStatuses.add(status);
+        }
+        return this;
+    }
+
+    // 冪等でない POST/PATCHも リトライするかを指定
+    // falseの場合でも、接続の確立に失敗した(リクエストを送信していない)場合は リトライする
+    public HttpRetryPolicy retryNonIdempotent(boolean retry) {
+        mRetryNonIdempotent = retry;
+        return this;
+    }
+
+    // サーバが返した Retry-Afterに従うかを指定
+    public HttpRetryPolicy honorRetryAfter(boolean honor) {
+        mHonorRetryAfter = honor;
+        return this;
+    }
+
+
+    /**
+     * リトライするかを判定し、リトライまでの 待機時間を返す
+     * @param method httpメソッド ("GET", "POST"等)
+     * @param retryCount 何回目のリトライか (1～)
+     * @param response 失敗したレスポンス。通信エラーの場合は statusが 0以下
+     * @param error 通信エラーの原因となった例外。通信エラーでない場合(ファイル等の ローカルの読み書きのエラーを含む)は null
+     * @param requestSent リクエストを送信したか。接続の確立に失敗した場合は false
+     * @param elapsedMilliSec 最初の実行からの 経過時間(ミリ秒)
+     * @return 待機時間(ミリ秒)。リトライしない場合は -1
+     */
+    public long getRetryDelay(String method, int retryCount, HttpResponse response, IOException error, boolean requestSent, long elapsedMilliSec) {
+        if (retryCount > mMaxRetries) return -1;
+        if (requestSent && !mRetryNonIdempotent && !isIdempotent(method)) return -1;
+        if (!isRetryable(response, error)) return -1;
+
+        long delay = -1;
+        if (mHonorRetryAfter && error == null) {
+            delay = parseRetryAfter(response.getResponseHeader(RESPONSE_HEADER_RETRY_AFTER), System.currentTimeMillis());
+        }
+        if (delay < 0) delay = computeBackoff(retryCount);
+        if (mMaxTotalMilliSec >= 0 && elapsedMilliSec + delay > mMaxTotalMilliSec) return -1;
+        return delay;
+    }
+
+    protected boolean isIdempotent(String method) {
+        return "GET".equals(method) || "PUT".equals(method) || "DELETE".equals(method) || "HEAD".equals(method);
+    }
+
+    /**
+     * 失敗の内容が リトライの対象となるかを返す
+     * @param response 失敗したレスポンス
+     * @param error 通信エラーの原因となった例外。通信エラーでない場合は null
+     * @return リトライの対象であれば true
+     */
+    protected boolean isRetryable(HttpResponse response, IOException error) {
+        if (error != null) {
+            // 証明書のエラーは リトライしても解消しない
+            return !(error instanceof SSLHandshakeException);
+        }
+        return mRetryStatuses.contains(response.getHttpStatus());
+    }
+
+    // 指数的に増やした待機時間に jitterを加える
+    protected long computeBackoff(int retryCount) {
+        double delay = mInitialDelayMilliSec * Math.pow(mMultiplier, retryCount - 1);
+        delay = Math.min(delay, mMaxDelayMilliSec);
+        double random;
+        synchronized (sRandom) {
+            random = sRandom.nextDouble();
+        }
+        return (long)(delay * (1.0 - mJitter * random));
+    }
+
+    /**
+     * Retry-Afterヘッダの値を 待機時間に変換する
+     * @param value ヘッダの値 (秒数、またはHTTPの日時)
+     * @param now 現在時刻
+     * @return 待機時間(ミリ秒)。指定されていない場合や 変換できない場合は -1
+     */
+    static long parseRetryAfter(String value, long now) {
+        if (value == null || value.isEmpty()) return -1;
+        try {
+            return Math.max(Long.parseLong(value.trim()), 0) * 1000;
+        } catch (NumberFormatException e) {
+            long time = HttpDate.parse(value);
+            return (time >= 0 ? Math.max(time - now, 0) : -1);
+        }
+    }
+
+}
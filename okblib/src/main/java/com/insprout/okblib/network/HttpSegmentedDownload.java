@@ -0,0 +1,384 @@
+package com.insprout.okblib.network;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpRequestクラスで使用する 分割ダウンロード処理
+ * ファイルを複数の範囲(chunk)に分けて 並列に Rangeリクエストで取得し、一時ファイルの該当位置に書き込む
+ * 並列数は 最大数まで 1本ずつ増やし、スループットが向上しなくなった時点で それ以上は増やさない
+ * 取得に失敗した chunkは、元のリクエストの HttpRetryPolicyに従って そのchunkのみ 続きから再取得する
+ */
+
+class HttpSegmentedDownload {
+    private final static String RESPONSE_HEADER_CONTENT_RANGE = "Content-Range";
+    private final static String RESPONSE_HEADER_ETAG = "ETag";
+    private final static String RESPONSE_HEADER_LAST_MODIFIED = "Last-Modified";
+
+    private final static long MIN_CHUNK_SIZE = 1024 * 1024;        // 1MB
+    private final static int CHUNKS_PER_SEGMENT = 4;
+    private final static int INITIAL_WORKERS = 2;
+    private final static long MIN_MEASURE_MILLI_SEC = 500;
+    private final static double SPEEDUP_THRESHOLD = 1.1;            // 並列数を増やして 10%以上 速くなれば、さらに増やす
+    private final static long WAIT_MILLI_SEC = 1000;                // 完了待ちの間に 中断を確認する間隔
+    private final static long STOP_WAIT_MILLI_SEC = 10000;          // 中断した ワーカーの終了を待つ時間
+
+    private final HttpRequest mRequest;
+    private final int mMaxSegments;
+
+    private final ConcurrentLinkedQueue<Chunk> mChunks = new ConcurrentLinkedQueue<>();
+    private final List<HttpRequest> mActiveRequests = new ArrayList<>();     // 実行中の 範囲毎のリクエスト
+    private final Object mLock = new Object();
+    private ExecutorService mExecutor = null;
+    private FileChannel mChannel = null;
+    private String mValidator = null;
+    private int mChunkCount = 0;
+    private int mCompletedCount = 0;
+    private int mWorkerCount = 0;
+    private int mFailedStatus = 0;
+    private boolean mFailed = false;
+    private boolean mStopped = false;                               // 新しい chunkの取得を行わない
+    private long mReceivedLength = 0;
+    // スループットの計測用
+    private boolean mSaturated = false;
+    private long mMeasureStartTime = 0;
+    private long mMeasureBytes = 0;
+    private double mLastRate = 0;
+
+
+    /**
+     * @param request ダウンロード元の リクエスト (各Rangeリクエストは このリクエストの複製で行う)
+     * @param maxSegments 最大並列数
+     */
+    HttpSegmentedDownload(HttpRequest request, int maxSegments) {
+        mRequest = request;
+        mMaxSegments = Math.max(maxSegments, 1);
+    }
+
+    /**
+     * 分割ダウンロードを行う
+     * @param responseFile 出力先
+     * @return 結果。全体サイズが分からない等で 分割ダウンロードを行えない場合は null (呼び出し元で 1本のストリームで取得する)
+     */
+    HttpResponse execute(File responseFile) {
+        final HttpDownloadFile downloadFile = new HttpDownloadFile(responseFile);
+        downloadFile.clearResumeInfo();
+
+        // 最初の1バイトを Rangeリクエストで取得し、全体サイズと Range対応の有無を調べる
+        // サーバが Rangeに対応していない場合は 200で全体が返るので、そのまま一時ファイルに書き込む
+        final long[] probe = { -1, 0 };          // {全体サイズ, 書き込んだバイト数}
+        final Map<String, String> headers = new HashMap<>();
+        final byte[][] probeBody = { null };     // エラーレスポンスの body
+        final HttpRequest probeRequest = mRequest.copyForRange(0, 0, null);
+        HttpResponse response = probeRequest.executeStream(new HttpRequest.OnResponseStreamListener() {
+            @Override
+            public void onResponseStream(HttpResponse response, InputStream body) throws IOException, InterruptedException {
+                if (response.getHttpStatus() == 206) {
+                    long[] range = HttpRequest.parseContentRange(response.getResponseHeader(RESPONSE_HEADER_CONTENT_RANGE));
+                    if (range != null) probe[0] = range[1];
+                    headers.put(RESPONSE_HEADER_ETAG, response.getResponseHeader(RESPONSE_HEADER_ETAG));
+                    headers.put(RESPONSE_HEADER_LAST_MODIFIED, response.getResponseHeader(RESPONSE_HEADER_LAST_MODIFIED));
+                    // 接続を再利用できるように 1バイトのbodyを読み切っておく
+                    while (body.read() != -1) ;
+                } else if (response.getHttpStatus() == 200) {
+                    probe[1] = downloadFile.write(body, -1);
+                } else {
+                    // エラーレスポンスは 分割しない場合と同じく bodyを バイト配列で返す
+                    probeBody[0] = probeRequest.toBytes(body, -1);
+                }
+            }
+        });
+        mRequest.removeChild(probeRequest);
+
+        int status = response.getHttpStatus();
+        if (status == 200) {
+            // Range非対応のサーバ。1本のストリームで取得済み
+            return commit(downloadFile, response, probe[1], probe[1]);
+        }
+        if ((status == 206 && probe[0] <= 0) || status == 416) {
+            // 全体サイズが分からない (Content-Rangeが 「*」) 場合や、空のファイルで 先頭の1バイトを取得できない(416)場合は
+            // 分割できないので、1本のストリームで取得する
+            downloadFile.discard();
+            return null;
+        }
+        if (status != 206) {
+            downloadFile.discard();
+            if (probeBody[0] == null) return response;
+            return new HttpResponse(status, probeBody[0], response.getHeaders(), response.getReceivedLength(), probeBody[0].length);
+        }
+
+        // 各範囲が 同一のファイルから取得されることを If-Rangeで保証する (弱いETagは使用できない)
+        String etag = headers.get(RESPONSE_HEADER_ETAG);
+        mValidator = (etag != null && !etag.startsWith("W/") ? etag : headers.get(RESPONSE_HEADER_LAST_MODIFIED));
+        long totalLength = probe[0];
+        splitChunks(totalLength);
+
+        try (RandomAccessFile raf = new RandomAccessFile(downloadFile.getPartFile(), "rw")) {
+            // 全体サイズの領域を事前に確保し、各chunkは 該当位置に直接書き込む
+            raf.setLength(totalLength);
+            mChannel = raf.getChannel();
+            mExecutor = Executors.newFixedThreadPool(mMaxSegments);
+            try {
+                synchronized (mLock) {
+                    mMeasureStartTime = System.currentTimeMillis();
+                    int workers = Math.min(INITIAL_WORKERS, Math.min(mMaxSegments, mChunkCount));
+                    for (int i = 0; i < workers; i++) startWorker();
+
+                    while (!mFailed && mCompletedCount < mChunkCount) {
+                        if (mRequest.isAborted()) throw new InterruptedException();
+                        mLock.wait(WAIT_MILLI_SEC);
+                    }
+                }
+            } finally {
+                // ファイルを閉じる前に、実行中の chunkを中断して ワーカーの終了を待つ
+                stopWorkers();
+            }
+
+        } catch (InterruptedException e) {
+            mFailed = true;
+            mFailedStatus = HttpRequest.STATUS_INTERRUPTED;
+
+        } catch (SecurityException e) {
+            mFailed = true;
+            mFailedStatus = HttpRequest.STATUS_ERROR_PERMISSION;
+
+        } catch (IOException e) {
+            mFailed = true;
+            mFailedStatus = HttpRequest.STATUS_ERROR_FILEIO;
+        }
+
+        if (mFailed) {
+            // 範囲毎に 穴の空いた一時ファイルは 続きからの再開ができないので破棄する
+            downloadFile.discard();
+            return new HttpResponse(mFailedStatus);
+        }
+        return commit(downloadFile, response, mReceivedLength, totalLength);
+    }
+
+
+    private HttpResponse commit(HttpDownloadFile downloadFile, HttpResponse response, long receivedLength, long length) {
+        try {
+            downloadFile.commit();
+        } catch (IOException e) {
+            downloadFile.discard();
+            return new HttpResponse(HttpRequest.STATUS_ERROR_FILEIO);
+        }
+        return new HttpResponse(200, null, response.getHeaders(), receivedLength, length);
+    }
+
+    private void splitChunks(long totalLength) {
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, (totalLength + mMaxSegments * CHUNKS_PER_SEGMENT - 1) / (mMaxSegments * CHUNKS_PER_SEGMENT));
+        for (long start = 0; start < totalLength; start += chunkSize) {
+            mChunks.add(new Chunk(start, Math.min(start + chunkSize, totalLength) - 1));
+            mChunkCount++;
+        }
+    }
+
+    // mLockを取得した状態で呼び出すこと
+    private void startWorker() {
+        mWorkerCount++;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Chunk chunk;
+                    while (!isFinished() && (chunk = mChunks.poll()) != null) {
+                        download(chunk);
+                    }
+                } catch (RuntimeException e) {
+                    // 予期しないエラーでも 完了待ちが終わるように 全体を失敗とする
+                    synchronized (mLock) {
+                        mFailed = true;
+                        if (mFailedStatus == 0) mFailedStatus = HttpRequest.STATUS_ERROR_INTERNAL;
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    // 新しい chunkの取得を止め、実行中の 範囲毎のリクエストを中断して ワーカーの終了を待つ
+    private void stopWorkers() {
+        synchronized (mLock) {
+            mStopped = true;
+            for (HttpRequest request : mActiveRequests) {
+                request.abort();
+            }
+        }
+        mExecutor.shutdownNow();
+        try {
+            mExecutor.awaitTermination(STOP_WAIT_MILLI_SEC, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean isFinished() {
+        synchronized (mLock) {
+            return mFailed || mStopped || Thread.currentThread().isInterrupted();
+        }
+    }
+
+    private void download(final Chunk chunk) {
+        final long start = chunk.start + chunk.written;
+        HttpRequest request;
+        synchronized (mLock) {
+            if (mStopped) return;
+            if (chunk.startTime == 0) chunk.startTime = System.currentTimeMillis();
+            request = mRequest.copyForRange(start, chunk.end, mValidator);
+            mActiveRequests.add(request);
+        }
+        HttpResponse response = request.executeStream(new HttpRequest.OnResponseStreamListener() {
+            @Override
+            public void onResponseStream(HttpResponse response, InputStream body) throws IOException, InterruptedException {
+                // 要求した範囲以外が返された場合は (取得元が更新された等) 書き込まない
+                if (response.getHttpStatus() != 206) return;
+                long[] range = HttpRequest.parseContentRange(response.getResponseHeader(RESPONSE_HEADER_CONTENT_RANGE));
+                if (range == null || range[0] != start) throw new IOException("unexpected Content-Range");
+
+                HttpDownloadFile.ChannelWriter writer = new HttpDownloadFile.ChannelWriter(mChannel, start);
+                try {
+                    writer.write(new ChunkInputStream(body, chunk.end + 1 - start));
+                } finally {
+                    // 失敗した場合は 書き込めた位置の続きから再取得する
+                    chunk.written += writer.getWritten();
+                }
+            }
+        });
+        mRequest.removeChild(request);
+
+        int status = response.getHttpStatus();
+        long retryDelay = -1;
+        if (status != 206 || !chunk.isCompleted()) {
+            // 取得元が更新されていた場合(200)や、クライアントエラー、中断された場合は リトライしない
+            boolean retryable = (status != 200 && !(status >= 400 && status <= 499) && status != HttpRequest.STATUS_INTERRUPTED);
+            HttpRetryPolicy retryPolicy = mRequest.getRetryPolicy();
+            if (retryable && retryPolicy != null) {
+                IOException error = request.getLastError();
+                // 206で 範囲の途中で終わった場合は、受信データが途中で終わった 通信エラーとして扱う
+                if (error == null && status == 206) error = new EOFException();
+                retryDelay = retryPolicy.getRetryDelay("GET", ++chunk.retry, response, error, true,
+                        System.currentTimeMillis() - chunk.startTime);
+            }
+        }
+
+        synchronized (mLock) {
+            mActiveRequests.remove(request);
+            if (status == 206 && chunk.isCompleted()) {
+                mCompletedCount++;
+                onProgress(chunk.end - chunk.start + 1);
+                mReceivedLength += response.getReceivedLength();
+
+            } else if (retryDelay < 0) {
+                // リトライしない場合や、リトライの回数, 時間の上限を超えた場合は 全体を失敗とする
+                // 他の chunkの失敗で 中断された場合は 最初の失敗の statusを返す
+                if (!mFailed) mFailedStatus = (status == 206 || status == 200 ? HttpRequest.STATUS_ERROR_INTERNAL : status);
+                mFailed = true;
+
+            } else {
+                mReceivedLength += response.getReceivedLength();
+            }
+            mLock.notifyAll();
+        }
+        if (retryDelay >= 0 && waitForRetry(retryDelay)) {
+            // このchunkのみ 受信済みの続きから 再取得する
+            mChunks.add(chunk);
+        }
+    }
+
+    // リトライまでの待機。待機中に 全体が失敗, 中断した場合は false
+    private boolean waitForRetry(long delayMilliSec) {
+        long endTime = System.currentTimeMillis() + delayMilliSec;
+        try {
+            synchronized (mLock) {
+                long remain;
+                while (!isFinished() && (remain = endTime - System.currentTimeMillis()) > 0) {
+                    mLock.wait(remain);
+                }
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        return !isFinished();
+    }
+
+    // スループットを計測し、並列数を増やすことで速くなっていれば さらに並列数を増やす
+    // mLockを取得した状態で呼び出すこと
+    private void onProgress(long bytes) {
+        mMeasureBytes += bytes;
+        if (mSaturated || mFailed || mWorkerCount >= mMaxSegments || mChunks.isEmpty()) return;
+
+        long elapsed = System.currentTimeMillis() - mMeasureStartTime;
+        if (elapsed < MIN_MEASURE_MILLI_SEC) return;
+
+        double rate = (double)mMeasureBytes / elapsed;
+        if (rate >= mLastRate * SPEEDUP_THRESHOLD) {
+            mLastRate = rate;
+            mMeasureStartTime = System.currentTimeMillis();
+            mMeasureBytes = 0;
+            startWorker();
+        } else {
+            // 回線帯域に達したので これ以上は増やさない
+            mSaturated = true;
+        }
+    }
+
+
+    // ファイル内の 取得範囲
+    private static class Chunk {
+        final long start;
+        final long end;             // 終了位置(この位置を含む)
+        long written = 0;
+        int retry = 0;
+        long startTime = 0;         // 最初に取得を開始した時刻 (リトライの 時間の上限の判定用)
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean isCompleted() {
+            return (start + written > end);
+        }
+    }
+
+    // chunkの範囲を超えて読み込まないようにする InputStream
+    private static class ChunkInputStream extends FilterInputStream {
+        private long mRemain;
+
+        ChunkInputStream(InputStream in, long length) {
+            super(in);
+            mRemain = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mRemain <= 0) return -1;
+            int data = super.read();
+            if (data != -1) mRemain--;
+            return data;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mRemain <= 0) return -1;
+            int size = super.read(buffer, offset, (int)Math.min(length, mRemain));
+            if (size > 0) mRemain -= size;
+            return size;
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.insprout.okblib.network;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpRequestクラスで使用する 同一リクエストの 集約処理
+ * 同じ内容の GETリクエストが 同時に実行された場合は、最初のリクエストだけが通信を行い
+ * 後から実行されたリクエストは その結果(レスポンス、または受信したファイル)を共有する
+ */
+
+class HttpSingleFlight {
+    private final static long WAIT_INTERVAL_MILLI_SEC = 100;    // 待機中に 中断を確認する間隔
+
+    private final static Map<String, Flight> sFlights = new HashMap<>();
+    private static long sSharedCount = 0;
+
+
+    /**
+     * 同じ内容のリクエストが実行中であれば その結果を待ち、なければ 自身で通信を行う
+     * @param request 実行するリクエスト
+     * @param key リクエストの内容を表すキー (HttpRequest.getCoalescingKey())
+     * @param responseFile レスポンスの出力先ファイル。バイト配列で受け取る場合は null
+     * @return レスポンス
+     */
+    static HttpResponse execute(HttpRequest request, String key, File responseFile) {
+        Flight flight;
+        boolean leader = false;
+        synchronized (sFlights) {
+            flight = sFlights.get(key);
+            if (flight == null) {
+                flight = new Flight(responseFile);
+                sFlights.put(key, flight);
+                leader = true;
+            }
+        }
+
+        if (leader) {
+            HttpResponse response = null;
+            try {
+                response = request.executeUncoalesced(responseFile, null);
+            } finally {
+                synchronized (sFlights) {
+                    sFlights.remove(key);
+                }
+                flight.finish(response);
+            }
+            return response;
+        }
+
+        // 実行中のリクエストの 終了を待つ
+        try {
+            while (!flight.await(WAIT_INTERVAL_MILLI_SEC)) {
+                if (request.isAborted()) return new HttpResponse(HttpRequest.STATUS_INTERRUPTED);
+            }
+        } catch (InterruptedException e) {
+            return new HttpResponse(HttpRequest.STATUS_INTERRUPTED);
+        }
+        HttpResponse response = flight.mResponse;
+        if (request.isAborted()) return new HttpResponse(HttpRequest.STATUS_INTERRUPTED);
+        if (response == null || response.getHttpStatus() == HttpRequest.STATUS_INTERRUPTED) {
+            // 通信を行ったリクエストが 中断された場合は、自身で通信を行う
+            return request.executeUncoalesced(responseFile, null);
+        }
+        synchronized (sFlights) {
+            sSharedCount++;
+        }
+        if (responseFile == null || !isSuccess(response)) return response;
+
+        // 受信したファイルを 出力先にコピーする
+        try {
+            if (!flight.mResponseFile.getCanonicalFile().equals(responseFile.getCanonicalFile())) {
+                copyFile(flight.mResponseFile, responseFile);
+            }
+        } catch (IOException e) {
+            return new HttpResponse(HttpRequest.STATUS_ERROR_FILEIO);
+        } catch (SecurityException e) {
+            return new HttpResponse(HttpRequest.STATUS_ERROR_PERMISSION);
+        }
+        return response;
+    }
+
+    // 他のリクエストの結果を 共有した回数
+    static long getSharedCount() {
+        synchronized (sFlights) {
+            return sSharedCount;
+        }
+    }
+
+    private static boolean isSuccess(HttpResponse response) {
+        return response.getHttpStatus() >= 200 && response.getHttpStatus() < 300;
+    }
+
+    // 一時ファイルに書き出してから 置き換える
+    private static void copyFile(File src, File dest) throws IOException {
+        File tempFile = new File(dest.getPath() + ".copy");
+        try (FileChannel in = new FileInputStream(src).getChannel();
+             FileChannel out = new FileOutputStream(tempFile).getChannel()) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        if (!tempFile.renameTo(dest)) {
+            // 置き換え先が存在すると renameに失敗する環境があるので、削除してから再度試みる
+            if (!dest.delete() || !tempFile.renameTo(dest)) {
+                if (!tempFile.delete()) tempFile.deleteOnExit();
+                throw new IOException("failed to rename " + tempFile);
+            }
+        }
+    }
+
+
+    private static class Flight {
+        private final File mResponseFile;
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private volatile HttpResponse mResponse = null;
+
+        private Flight(File responseFile) {
+            mResponseFile = responseFile;
+        }
+
+        private void finish(HttpResponse response) {
+            mResponse = response;
+            mLatch.countDown();
+        }
+
+        private boolean await(long timeoutMilliSec) throws InterruptedException {
+            return mLatch.await(timeoutMilliSec, TimeUnit.MILLISECONDS);
+        }
+    }
+
+}
@@ -0,0 +1,350 @@
+package com.insprout.okblib.network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * HttpRequestクラスで使用する 共有の SSLSocketFactory
+ * 同じ設定の接続では 同じ SSLContextを使用するので、TLSセッションが再開され(フルハンドシェイクを省略)
+ * keep-alive接続も再利用される。
+ * ハンドシェイクの回数を セッションの再開と フルハンドシェイクに分けて記録する
+ */
+
+public class HttpSslSocketFactory extends SSLSocketFactory {
+    private final static int SESSION_CACHE_SIZE = 64;
+    private final static int SESSION_TIMEOUT_SEC = 24 * 60 * 60;
+
+    private static HttpSslSocketFactory sSystemDefault = null;
+    private final static Map<List<Object>, HttpSslSocketFactory> sFactories = new HashMap<>();
+    private final static Map<List<Object>, SSLSocketFactory> sHostnameFactories = new HashMap<>();
+    private final static Map<String, HostnameVerifier> sHostnameVerifiers = new HashMap<>();
+
+    private final static AtomicLong sFullHandshakeCount = new AtomicLong();
+    private final static AtomicLong sResumedHandshakeCount = new AtomicLong();
+    // ハンドシェイクを行った セッション (再開の判定用)
+    private final static Map<SSLSession, Boolean> sKnownSessions = Collections.synchronizedMap(new WeakHashMap<SSLSession, Boolean>());
+    // このスレッドで 接続を行っているリクエスト (TLSのハンドシェイクの通知先)
+    private final static ThreadLocal<HttpRequest> sConnectingRequest = new ThreadLocal<>();
+    // このスレッドで ソケットを作成したか (keep-alive接続の 再利用の判定用)
+    private final static ThreadLocal<Boolean> sSocketCreated = new ThreadLocal<>();
+
+    // 証明書のホスト名の検証を行わない HostnameVerifier
+    final static HostnameVerifier TRUST_ALL_HOSTNAME_VERIFIER = new HostnameVerifier() {
+        @Override
+        public boolean verify(String hostname, SSLSession session) {
+            return true;
+        }
+    };
+
+    private final SSLSocketFactory mDelegate;
+
+
+    private HttpSslSocketFactory(SSLSocketFactory delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * システムの設定(証明書の検証を行う)の SSLSocketFactoryを返す
+     * @return SSLSocketFactory
+     */
+    public static synchronized HttpSslSocketFactory getSystemDefault() {
+        if (sSystemDefault == null) sSystemDefault = new HttpSslSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+        return sSystemDefault;
+    }
+
+    /**
+     * 証明書チェーンの検証を行わない SSLSocketFactoryを返す (自己署名証明書のサイト用)
+     * @return SSLSocketFactory。作成できない場合は null
+     */
+    public static HttpSslSocketFactory getTrustAll() {
+        return getInstance(null, new TrustManager[] { TrustAllManager.INSTANCE });
+    }
+
+    /**
+     * 指定された KeyManager, TrustManagerの SSLSocketFactoryを返す
+     * 同じ KeyManager, TrustManager(同じインスタンス)の指定に対しては 同じ SSLSocketFactoryを返す
+     * @param keyManagers クライアント証明書の KeyManager。使用しない場合は null
+     * @param trustManagers サーバ証明書を検証する TrustManager。システムの設定を使用する場合は null
+     * @return SSLSocketFactory。作成できない場合は null
+     */
+    public static HttpSslSocketFactory getInstance(KeyManager[] keyManagers, TrustManager[] trustManagers) {
+        List<Object> key = Arrays.<Object>asList(
+                (keyManagers != null ? Arrays.asList((Object[])keyManagers) : null),
+                (trustManagers != null ? Arrays.asList((Object[])trustManagers) : null));
+        synchronized (sFactories) {
+            HttpSslSocketFactory factory = sFactories.get(key);
+            if (factory != null) return factory;
+            try {
+                SSLContext sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(keyManagers, trustManagers, null);
+                // TLSセッションを保持して 再開できるようにする
+                SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+                if (sessionContext != null) {
+                    sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+                    sessionContext.setSessionTimeout(SESSION_TIMEOUT_SEC);
+                }
+                factory = new HttpSslSocketFactory(sslContext.getSocketFactory());
+                sFactories.put(key, factory);
+                return factory;
+
+            } catch (NoSuchAlgorithmException | KeyManagementException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * IPアドレスで接続する場合に、TLSのハンドシェイク(SNI, セッションの再開)には 元のホスト名を使用する SSLSocketFactoryを返す
+     * keep-alive接続を再利用できるように、同じ指定に対しては 同じインスタンスを返す
+     * @param factory 元の SSLSocketFactory
+     * @param hostname 元のホスト名
+     * @return SSLSocketFactory
+     */
+    static SSLSocketFactory forHostname(final SSLSocketFactory factory, final String hostname) {
+        List<Object> key = Arrays.<Object>asList(factory, hostname);
+        synchronized (sHostnameFactories) {
+            SSLSocketFactory hostnameFactory = sHostnameFactories.get(key);
+            if (hostnameFactory == null) {
+                hostnameFactory = new HostnameSocketFactory(factory, hostname);
+                sHostnameFactories.put(key, hostnameFactory);
+            }
+            return hostnameFactory;
+        }
+    }
+
+    /**
+     * IPアドレスで接続する場合に、証明書を 元のホスト名で検証する HostnameVerifierを返す
+     * keep-alive接続を再利用できるように、同じホスト名に対しては 同じインスタンスを返す
+     * @param hostname 元のホスト名
+     * @return HostnameVerifier
+     */
+    static HostnameVerifier verifierForHostname(final String hostname) {
+        synchronized (sHostnameVerifiers) {
+            HostnameVerifier verifier = sHostnameVerifiers.get(hostname);
+            if (verifier == null) {
+                verifier = new HostnameVerifier() {
+                    @Override
+                    public boolean verify(String host, SSLSession session) {
+                        return HttpsURLConnection.getDefaultHostnameVerifier().verify(hostname, session);
+                    }
+                };
+                sHostnameVerifiers.put(hostname, verifier);
+            }
+            return verifier;
+        }
+    }
+
+    /**
+     * このスレッドで行う接続の TLSのハンドシェイクを 通知するリクエストを設定する
+     * @param request 接続を行うリクエスト。接続の終了時は null
+     */
+    static void setConnectingRequest(HttpRequest request) {
+        if (request != null) {
+            sConnectingRequest.set(request);
+        } else {
+            sConnectingRequest.remove();
+        }
+    }
+
+    /**
+     * 前回の呼び出し以降に このスレッドで ソケットを作成したかを返し、記録をクリアする
+     * 接続の前後で呼び出して、新しい接続か keep-alive接続を再利用したかを判定する
+     * @return ソケットを作成した場合は true
+     */
+    static boolean pollSocketCreated() {
+        boolean created = (sSocketCreated.get() != null);
+        sSocketCreated.remove();
+        return created;
+    }
+
+    /**
+     * ソケットの作成を pollSocketCreated()で判定できる SSLSocketFactoryか
+     * @param factory SSLSocketFactory
+     * @return HttpSslSocketFactory(forHostname()で作成したものを含む)の場合は true
+     */
+    static boolean isObservable(SSLSocketFactory factory) {
+        if (factory instanceof HostnameSocketFactory) factory = ((HostnameSocketFactory)factory).mDelegate;
+        return (factory instanceof HttpSslSocketFactory);
+    }
+
+    // フルハンドシェイクの回数
+    public static long getFullHandshakeCount() {
+        return sFullHandshakeCount.get();
+    }
+
+    // セッションを再開した ハンドシェイクの回数
+    public static long getResumedHandshakeCount() {
+        return sResumedHandshakeCount.get();
+    }
+
+    public static void resetStats() {
+        sFullHandshakeCount.set(0);
+        sResumedHandshakeCount.set(0);
+    }
+
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return mDelegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return mDelegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return observe(mDelegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+        return observe(mDelegate.createSocket(socket, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return observe(mDelegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return observe(mDelegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return observe(mDelegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return observe(mDelegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    // ハンドシェイクの完了時に、セッションが再開されたものかを記録する
+    private Socket observe(Socket socket) {
+        if (!(socket instanceof SSLSocket)) return socket;
+
+        sSocketCreated.set(Boolean.TRUE);
+        final long createdTime = System.currentTimeMillis();
+        final HttpRequest request = sConnectingRequest.get();
+        final HttpEventListener eventListener = (request != null ? request.getActiveEventListener() : null);
+        if (eventListener != null) eventListener.secureConnectStart(request, System.nanoTime());
+        ((SSLSocket)socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+            @Override
+            public void handshakeCompleted(HandshakeCompletedEvent event) {
+                SSLSession session = event.getSession();
+                // 再開したセッションは 以前に確立したものと同じか、この接続より前に作成されている
+                boolean resumed = (sKnownSessions.put(session, Boolean.TRUE) != null)
+                        || session.getCreationTime() < createdTime;
+                if (resumed) {
+                    sResumedHandshakeCount.incrementAndGet();
+                } else {
+                    sFullHandshakeCount.incrementAndGet();
+                }
+                if (eventListener != null) eventListener.secureConnectEnd(request, resumed, System.nanoTime());
+            }
+        });
+        return socket;
+    }
+
+
+    // 接続先のホスト名を 元のホスト名に置き換えて ハンドシェイクを行う SSLSocketFactory
+    private static class HostnameSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory mDelegate;
+        private final String mHostname;
+
+        private HostnameSocketFactory(SSLSocketFactory delegate, String hostname) {
+            mDelegate = delegate;
+            mHostname = hostname;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return mDelegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return mDelegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return mDelegate.createSocket();
+        }
+
+        // HttpsURLConnectionは 接続済みのソケットに対して このメソッドで TLSの層を作成する
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return mDelegate.createSocket(socket, mHostname, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return mDelegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return mDelegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return mDelegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return mDelegate.createSocket(address, port, localAddress, localPort);
+        }
+    }
+
+
+    // 証明書チェーンの検証を行わない TrustManager
+    private static class TrustAllManager implements X509TrustManager {
+        private final static TrustAllManager INSTANCE = new TrustAllManager();
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.insprout.okblib.network;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * HttpURLConnectionを使用する HttpEngine (既定のエンジン)
+ * keep-alive接続は HttpURLConnectionの内部プールが保持する (設定は HttpConnectionPool)。
+ * 接続を再利用したかは HttpSslSocketFactoryを使用した https接続の場合のみ 判別できる
+ */
+
+public class HttpUrlConnectionEngine implements HttpEngine {
+    private final static int CHUNK_SIZE = 16 * 1024;
+
+    private static HttpUrlConnectionEngine sInstance = null;
+
+
+    public HttpUrlConnectionEngine() {
+    }
+
+    public static synchronized HttpUrlConnectionEngine getInstance() {
+        if (sInstance == null) sInstance = new HttpUrlConnectionEngine();
+        return sInstance;
+    }
+
+    @Override
+    public Exchange newExchange(HttpEngineRequest request) throws IOException {
+        return new UrlConnectionExchange(request);
+    }
+
+
+    private static class UrlConnectionExchange implements Exchange {
+        private boolean mObservable = false;                // ソケットの作成を 判別できるか
+        private boolean mReusedConnection = false;
+        private HttpURLConnection mConnection = null;
+        private int mResponseStatus = 0;
+
+        @SuppressLint("ObsoleteSdkInt")
+        private UrlConnectionExchange(HttpEngineRequest request) throws IOException {
+            // 以降は 内部プールの設定が反映されない
+            HttpConnectionPool.onConnect();
+
+            boolean completed = false;
+            try {
+                mConnection = (HttpURLConnection)request.getUrl().openConnection();
+                if (mConnection instanceof HttpsURLConnection) {
+                    HttpsURLConnection httpsConnection = (HttpsURLConnection)mConnection;
+                    if (request.getSslSocketFactory() != null) httpsConnection.setSSLSocketFactory(request.getSslSocketFactory());
+                    mObservable = request.isKeepAlive() && HttpSslSocketFactory.isObservable(httpsConnection.getSSLSocketFactory());
+                    if (request.getHostnameVerifier() != null) httpsConnection.setHostnameVerifier(request.getHostnameVerifier());
+                }
+
+                // httpメソッド設定
+                mConnection.setRequestMethod(request.getMethod());
+                // リダイレクトは 回数と メソッドの変更を制御するため、HttpURLConnectionに任せず HttpRequestで辿る
+                mConnection.setInstanceFollowRedirects(false);
+
+                // タイムアウト時間の設定
+                mConnection.setReadTimeout(request.getReadTimeout());
+                mConnection.setConnectTimeout(request.getConnectTimeout());
+
+                HttpHeaders headers = request.getHeaders();
+                for (int i = 0; i < headers.size(); i++) {
+                    mConnection.addRequestProperty(headers.name(i), headers.value(i));
+                }
+                // httpUrlConnectionで EOFExceptionが 発生する問題に対応
+                if (!request.isKeepAlive() && Build.VERSION.SDK_INT > 13) mConnection.setRequestProperty("Connection", "close");
+
+                if (request.hasBody()) {
+                    // 送信データサイズをセット
+                    long contentLength = request.getContentLength();
+                    if (contentLength >= 0) {
+                        mConnection.setFixedLengthStreamingMode(contentLength);
+                    } else {
+                        // サイズが不明な場合は chunked形式で送信する
+                        mConnection.setChunkedStreamingMode(CHUNK_SIZE);
+                    }
+                    // 出力を行うように設定
+                    mConnection.setDoOutput(true);
+                }
+
+                // httpレスポンスを受け取るように設定
+                mConnection.setDoInput(true);
+                completed = true;
+
+            } finally {
+                if (!completed) release(false);
+            }
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (mObservable) HttpSslSocketFactory.pollSocketCreated();
+            mConnection.connect();
+            // ソケットを作成せずに 接続できた場合は、内部プールの接続を再利用している
+            if (mObservable) mReusedConnection = !HttpSslSocketFactory.pollSocketCreated();
+            HttpConnectionPool.onConnected(mObservable, mReusedConnection);
+        }
+
+        @Override
+        public boolean isReusedConnection() {
+            return mReusedConnection;
+        }
+
+        @Override
+        public OutputStream getRequestBody() throws IOException {
+            // bodyの出力ストリームを取得した時点で ヘッダは送信される
+            return mConnection.getOutputStream();
+        }
+
+        @Override
+        public int getResponseStatus() throws IOException {
+            if (mResponseStatus != 0) return mResponseStatus;
+            try {
+                mResponseStatus = mConnection.getResponseCode();
+
+            } catch (IOException e) {
+                // apiサーバが status 401の際に 「WWW-Authenticate: ～」をつけてレスポンスを返さない件に対応
+                // 認証系のエラーの場合、401エラーとして継続してみる
+                // 別のエラーの場合は、上位のエラーハンドラーにまかせる
+                String errMsg = e.getMessage();
+                if (errMsg != null && errMsg.toLowerCase(Locale.ENGLISH).contains("authentication")) {
+                    mResponseStatus = 401;
+                } else {
+                    throw e;
+                }
+            }
+            return mResponseStatus;
+        }
+
+        @Override
+        public HttpHeaders getResponseHeaders() {
+            return HttpHeaders.of(mConnection);
+        }
+
+        @Override
+        public InputStream getResponseBody() throws IOException {
+            int status = getResponseStatus();
+            // エラーレスポンスに bodyがない場合は nullが返る
+            return (status >= 400 && status <= 599 || status <= 0 ? mConnection.getErrorStream() : mConnection.getInputStream());
+        }
+
+        @Override
+        public void cancel() {
+            HttpURLConnection connection = mConnection;
+            if (connection != null) connection.disconnect();
+        }
+
+        @Override
+        public void release(boolean reusable) {
+            // keep-alive接続は disconnect()せずに HttpURLConnectionのプールに戻す
+            if (mConnection != null && !reusable) mConnection.disconnect();
+        }
+    }
+
+}
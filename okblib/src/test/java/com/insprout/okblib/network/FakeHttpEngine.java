@@ -0,0 +1,177 @@
+package com.insprout.okblib.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 単体テスト用の HttpEngine
+ * 通信は行わずに、Responderが返す内容を レスポンスとして返す。受け取ったリクエストは 順に記録する
+ */
+class FakeHttpEngine implements HttpEngine {
+
+    interface Responder {
+        /**
+         * リクエストに対する レスポンスを返す。IOExceptionを投げた場合は 接続の失敗として扱う
+         * @param request リクエスト
+         * @param index 何番目のリクエストか (0～)
+         */
+        FakeResponse respond(HttpEngineRequest request, int index) throws IOException;
+    }
+
+    private final Responder mResponder;
+    private final List<HttpEngineRequest> mRequests = new ArrayList<>();
+
+
+    FakeHttpEngine(Responder responder) {
+        mResponder = responder;
+    }
+
+    // 受け取ったリクエスト
+    synchronized List<HttpEngineRequest> getRequests() {
+        return Collections.unmodifiableList(new ArrayList<>(mRequests));
+    }
+
+    synchronized int getRequestCount() {
+        return mRequests.size();
+    }
+
+    @Override
+    public Exchange newExchange(HttpEngineRequest request) {
+        int index;
+        synchronized (this) {
+            index = mRequests.size();
+            mRequests.add(request);
+        }
+        return new FakeExchange(request, index);
+    }
+
+
+    /**
+     * Responderが返す レスポンス
+     */
+    static class FakeResponse {
+        private final int mStatus;
+        private final HttpHeaders.Builder mHeaders = new HttpHeaders.Builder();
+        private byte[] mBody = null;
+        private int mFailAfter = -1;
+
+        FakeResponse(int status) {
+            mStatus = status;
+        }
+
+        FakeResponse header(String name, String value) {
+            mHeaders.add(name, value);
+            return this;
+        }
+
+        // Content-Lengthが 指定されていない場合は bodyのサイズを付加する
+        FakeResponse body(byte[] body) {
+            mBody = body;
+            return this;
+        }
+
+        FakeResponse body(String body) {
+            return body(body.getBytes());
+        }
+
+        // bodyを 指定バイト数まで返した後に 通信エラー(IOException)とする
+        FakeResponse failAfter(int bytes) {
+            mFailAfter = bytes;
+            return this;
+        }
+
+        private HttpHeaders headers() {
+            HttpHeaders headers = mHeaders.build();
+            if (mBody != null && headers.get(HttpHeaders.CONTENT_LENGTH) == null) {
+                headers = headers.newBuilder().add(HttpHeaders.CONTENT_LENGTH, String.valueOf(mBody.length)).build();
+            }
+            return headers;
+        }
+    }
+
+    private class FakeExchange implements Exchange {
+        private final HttpEngineRequest mRequest;
+        private final int mIndex;
+        private FakeResponse mResponse = null;
+
+        private FakeExchange(HttpEngineRequest request, int index) {
+            mRequest = request;
+            mIndex = index;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            mResponse = mResponder.respond(mRequest, mIndex);
+        }
+
+        @Override
+        public boolean isReusedConnection() {
+            return false;
+        }
+
+        @Override
+        public OutputStream getRequestBody() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public int getResponseStatus() {
+            return mResponse.mStatus;
+        }
+
+        @Override
+        public HttpHeaders getResponseHeaders() {
+            return mResponse.headers();
+        }
+
+        @Override
+        public InputStream getResponseBody() {
+            if (mResponse.mBody == null) return null;
+            if (mResponse.mFailAfter < 0) return new ByteArrayInputStream(mResponse.mBody);
+            return new FailingInputStream(mResponse.mBody, mResponse.mFailAfter);
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public void release(boolean reusable) {
+        }
+    }
+
+    // 指定バイト数を返した後に 通信エラーとなるストリーム
+    private static class FailingInputStream extends InputStream {
+        private final byte[] mData;
+        private final int mLimit;
+        private int mPosition = 0;
+
+        private FailingInputStream(byte[] data, int limit) {
+            mData = data;
+            mLimit = Math.min(limit, data.length);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mPosition >= mLimit) throw new IOException("connection reset");
+            return mData[mPosition++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if (mPosition >= mLimit) throw new IOException("connection reset");
+            int size = Math.min(length, mLimit - mPosition);
+            System.arraycopy(mData, mPosition, buffer, offset, size);
+            mPosition += size;
+            return size;
+        }
+    }
+
+}
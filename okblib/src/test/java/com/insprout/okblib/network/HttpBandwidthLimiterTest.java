@@ -0,0 +1,69 @@
+package com.insprout.okblib.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpBandwidthLimiterの トークンバケットの 待機時間の計算を確認する
+ */
+public class HttpBandwidthLimiterTest {
+    private final static long SEC = 1000000000L;
+    private final static int CHUNK_SIZE = 8 * 1024;             // HttpBandwidthLimiter.CHUNK_SIZE
+    private final static long T0 = 1000 * SEC;
+
+    @Test
+    public void unlimited_neverWaits() {
+        HttpBandwidthLimiter.Bucket bucket = new HttpBandwidthLimiter.Bucket();
+        assertEquals(0, bucket.reserve(Integer.MAX_VALUE, T0));
+
+        bucket.setRate(-100, T0);
+        assertEquals(HttpBandwidthLimiter.UNLIMITED, bucket.getRate());
+        assertEquals(0, bucket.reserve(Integer.MAX_VALUE, T0));
+    }
+
+    @Test
+    public void reserve_waitsForDebt() {
+        HttpBandwidthLimiter.Bucket bucket = new HttpBandwidthLimiter.Bucket();
+        bucket.setRate(1000, T0);
+        // 最初は トークンがないので 前借りした分だけ待つ
+        assertEquals(SEC, bucket.reserve(1000, T0));
+        // 1秒後に 前借りを返し終わる
+        assertEquals(SEC / 2, bucket.reserve(500, T0 + SEC));
+        assertEquals(SEC, bucket.reserve(500, T0 + SEC));
+    }
+
+    @Test
+    public void reserve_accumulatesUpToCapacity() {
+        HttpBandwidthLimiter.Bucket bucket = new HttpBandwidthLimiter.Bucket();
+        // 0.25秒分が 1回分より少ない場合は 1回分まで蓄積できる
+        bucket.setRate(1000, T0);
+        assertEquals(0, bucket.reserve(CHUNK_SIZE, T0 + 100 * SEC));
+        assertEquals(SEC / 1000, bucket.reserve(1, T0 + 100 * SEC));
+
+        bucket.setRate(4000000, T0);
+        assertEquals(0, bucket.reserve(1000000, T0 + 100 * SEC));
+        assertEquals(SEC / 4000, bucket.reserve(1000, T0 + 100 * SEC));
+    }
+
+    @Test
+    public void setRate_discardsDebt() {
+        HttpBandwidthLimiter.Bucket bucket = new HttpBandwidthLimiter.Bucket();
+        bucket.setRate(1000, T0);
+        assertEquals(10 * SEC, bucket.reserve(10000, T0));
+        bucket.setRate(2000, T0);
+        assertEquals(2000, bucket.getRate());
+        assertEquals(SEC / 2, bucket.reserve(1000, T0));
+    }
+
+    @Test
+    public void limiter_rates() {
+        HttpBandwidthLimiter limiter = new HttpBandwidthLimiter(-1, 5000);
+        assertEquals(HttpBandwidthLimiter.UNLIMITED, limiter.getUploadRate());
+        assertEquals(5000, limiter.getDownloadRate());
+        limiter.setUploadRate(100).setDownloadRate(HttpBandwidthLimiter.UNLIMITED);
+        assertEquals(100, limiter.getUploadRate());
+        assertEquals(HttpBandwidthLimiter.UNLIMITED, limiter.getDownloadRate());
+    }
+
+}
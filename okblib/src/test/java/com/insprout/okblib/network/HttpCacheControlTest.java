@@ -0,0 +1,70 @@
+package com.insprout.okblib.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpCacheControlの Cache-Controlヘッダの解析と、HttpDateの 日時の変換を確認する
+ */
+public class HttpCacheControlTest {
+    private final static long TIME = 784111777000L;             // Sun, 06 Nov 1994 08:49:37 GMT
+
+    @Test
+    public void parse_null() {
+        HttpCacheControl cacheControl = HttpCacheControl.parse(null);
+        assertFalse(cacheControl.isNoStore());
+        assertFalse(cacheControl.isNoCache());
+        assertFalse(cacheControl.isMustRevalidate());
+        assertEquals(-1, cacheControl.getMaxAgeSeconds());
+    }
+
+    @Test
+    public void parse_directives() {
+        HttpCacheControl cacheControl = HttpCacheControl.parse("No-Store, no-cache ,MUST-REVALIDATE, max-age = 60, private");
+        assertTrue(cacheControl.isNoStore());
+        assertTrue(cacheControl.isNoCache());
+        assertTrue(cacheControl.isMustRevalidate());
+        assertEquals(60, cacheControl.getMaxAgeSeconds());
+
+        cacheControl = HttpCacheControl.parse("public, s-maxage=10");
+        assertFalse(cacheControl.isNoStore());
+        assertFalse(cacheControl.isNoCache());
+        assertEquals(-1, cacheControl.getMaxAgeSeconds());
+    }
+
+    @Test
+    public void parse_maxAge() {
+        assertEquals(30, HttpCacheControl.parse("max-age=\"30\"").getMaxAgeSeconds());
+        assertEquals(0, HttpCacheControl.parse("max-age=-5").getMaxAgeSeconds());
+        assertEquals(-1, HttpCacheControl.parse("max-age=abc").getMaxAgeSeconds());
+        assertEquals(-1, HttpCacheControl.parse("max-age").getMaxAgeSeconds());
+        assertEquals(-1, HttpCacheControl.parse("max-age=").getMaxAgeSeconds());
+        // 複数ある場合は 後のものを使用する
+        assertEquals(20, HttpCacheControl.parse("max-age=10, max-age=20").getMaxAgeSeconds());
+    }
+
+    @Test
+    public void parseDate_acceptedFormats() {
+        assertEquals(TIME, HttpDate.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(TIME, HttpDate.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+        assertEquals(TIME, HttpDate.parse("Sun Nov  6 08:49:37 1994"));
+        assertEquals(TIME, HttpDate.parse("  Sun, 06 Nov 1994 08:49:37 GMT "));
+    }
+
+    @Test
+    public void parseDate_invalid() {
+        assertEquals(-1, HttpDate.parse(null));
+        assertEquals(-1, HttpDate.parse(""));
+        assertEquals(-1, HttpDate.parse("0"));
+        assertEquals(-1, HttpDate.parse("yesterday"));
+    }
+
+    @Test
+    public void formatDate() {
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDate.format(TIME));
+        // ミリ秒は 切り捨てられる
+        assertEquals(TIME, HttpDate.parse(HttpDate.format(TIME + 999)));
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.insprout.okblib.network;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpCachingDnsの 結果の保持と、バックグラウンドでの更新を確認する
+ */
+public class HttpCachingDnsTest {
+    private final static long TTL = 1000;
+    private final static long NEGATIVE_TTL = 10000;
+
+    @Test
+    public void lookup_cachesResult() throws Exception {
+        FakeDns delegate = new FakeDns();
+        HttpCachingDns dns = new HttpCachingDns(delegate, 60000, NEGATIVE_TTL);
+        assertEquals(FakeDns.ADDRESSES, dns.lookup("Example.COM"));
+        assertEquals(FakeDns.ADDRESSES, dns.lookup("example.com"));
+        assertEquals(1, delegate.getCallCount());
+        assertEquals(1, dns.getMissCount());
+        assertEquals(1, dns.getHitCount());
+    }
+
+    @Test
+    public void lookup_cachesFailure() throws Exception {
+        FakeDns delegate = new FakeDns();
+        delegate.setFail(true);
+        HttpCachingDns dns = new HttpCachingDns(delegate, 60000, NEGATIVE_TTL);
+        assertLookupFails(dns);
+        delegate.setFail(false);
+        // 解決できなかった結果の 有効期間内は 問い合わせない
+        assertLookupFails(dns);
+        assertEquals(1, delegate.getCallCount());
+        assertEquals(1, dns.getNegativeHitCount());
+    }
+
+    @Test
+    public void refresh_updatesInBackground() throws Exception {
+        FakeDns delegate = new FakeDns();
+        HttpCachingDns dns = new HttpCachingDns(delegate, TTL, NEGATIVE_TTL);
+        dns.lookup("example.com");
+        Thread.sleep(TTL * 3 / 4 + 50);
+        assertEquals(FakeDns.ADDRESSES, dns.lookup("example.com"));
+        waitForCalls(delegate, 2);
+        assertEquals(1, dns.getRefreshCount());
+
+        // 更新した結果の 有効期間内は 問い合わせない
+        Thread.sleep(TTL / 2);
+        dns.lookup("example.com");
+        assertEquals(2, delegate.getCallCount());
+    }
+
+    @Test
+    public void refreshFailure_keepsValidResult() throws Exception {
+        FakeDns delegate = new FakeDns();
+        HttpCachingDns dns = new HttpCachingDns(delegate, TTL, NEGATIVE_TTL);
+        dns.lookup("example.com");
+        Thread.sleep(TTL * 3 / 4 + 50);
+        delegate.setFail(true);
+        dns.lookup("example.com");
+        waitForCalls(delegate, 2);
+        Thread.sleep(50);
+
+        // 更新に失敗しても 有効期間内の結果を返す。次の更新は 遅らせる
+        assertEquals(FakeDns.ADDRESSES, dns.lookup("example.com"));
+        assertEquals(2, delegate.getCallCount());
+        assertEquals(0, dns.getNegativeHitCount());
+
+        // 有効期間が過ぎた後は 改めて問い合わせる
+        Thread.sleep(TTL / 4);
+        assertLookupFails(dns);
+        assertEquals(3, delegate.getCallCount());
+    }
+
+    @Test
+    public void prefetchFailure_keepsValidResult() throws Exception {
+        FakeDns delegate = new FakeDns();
+        HttpCachingDns dns = new HttpCachingDns(delegate, TTL, NEGATIVE_TTL);
+        dns.lookup("example.com");
+        Thread.sleep(TTL + 50);
+        // 有効期間が過ぎた結果は 解決できなかった結果で置き換える
+        delegate.setFail(true);
+        dns.prefetch("example.com");
+        waitForCalls(delegate, 2);
+        Thread.sleep(50);
+        assertLookupFails(dns);
+        assertEquals(2, delegate.getCallCount());
+    }
+
+
+    private static void assertLookupFails(HttpCachingDns dns) {
+        try {
+            dns.lookup("example.com");
+            fail("UnknownHostException expected");
+        } catch (UnknownHostException e) {
+            // 期待通り
+        }
+    }
+
+    private static void waitForCalls(FakeDns delegate, int count) throws InterruptedException {
+        for (int i = 0; i < 100 && delegate.getCallCount() < count; i++) Thread.sleep(10);
+        assertEquals(count, delegate.getCallCount());
+    }
+
+    private static class FakeDns implements HttpDns {
+        private final static List<InetAddress> ADDRESSES = Collections.singletonList(InetAddress.getLoopbackAddress());
+        private int mCallCount = 0;
+        private boolean mFail = false;
+
+        synchronized void setFail(boolean fail) {
+            mFail = fail;
+        }
+
+        synchronized int getCallCount() {
+            return mCallCount;
+        }
+
+        @Override
+        public synchronized List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            mCallCount++;
+            if (mFail) throw new UnknownHostException(hostname);
+            return ADDRESSES;
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.insprout.okblib.network;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpCookieJarの Set-Cookieの解析と、送信先の判定(ドメイン, パス, secure)を確認する
+ * CookieManagerとの同期は 端末上でのみ動作するので、ここでは確認しない
+ */
+public class HttpCookieJarTest {
+    private final static long NOW = 1500000000000L;
+
+    @Test
+    public void parse_invalid() throws Exception {
+        assertNull(parse("", "http://www.example.com/"));
+        assertNull(parse("=value", "http://www.example.com/"));
+        assertNull(parse(" =value", "http://www.example.com/"));
+        assertNull(parse("novalue; Path=/", "http://www.example.com/"));
+    }
+
+    @Test
+    public void hostOnly_matchesSameHostOnly() throws Exception {
+        HttpCookieJar.Cookie cookie = parse("a=1", "http://www.example.com/");
+        assertTrue(cookie.matches("www.example.com", "/", false));
+        assertFalse(cookie.matches("sub.www.example.com", "/", false));
+        assertFalse(cookie.matches("example.com", "/", false));
+    }
+
+    @Test
+    public void domain_matchesSubdomains() throws Exception {
+        HttpCookieJar.Cookie cookie = parse("a=1; Domain=.Example.COM", "http://www.example.com/");
+        assertTrue(cookie.matches("example.com", "/", false));
+        assertTrue(cookie.matches("www.example.com", "/", false));
+        assertTrue(cookie.matches("a.b.example.com", "/", false));
+        assertFalse(cookie.matches("badexample.com", "/", false));
+        assertFalse(cookie.matches("example.org", "/", false));
+    }
+
+    @Test
+    public void domain_rejectsOtherDomains() throws Exception {
+        assertNull(parse("a=1; Domain=example.org", "http://www.example.com/"));
+        assertNull(parse("a=1; Domain=api.example.com", "http://www.example.com/"));
+        assertNull(parse("a=1; Domain=ample.com", "http://www.example.com/"));
+        assertNotNull(parse("a=1; Domain=", "http://www.example.com/"));
+    }
+
+    @Test
+    public void path_defaultsToRequestDirectory() throws Exception {
+        HttpCookieJar.Cookie cookie = parse("a=1", "http://www.example.com/a/b/c?q=1");
+        assertTrue(cookie.matches("www.example.com", "/a/b", false));
+        assertTrue(cookie.matches("www.example.com", "/a/b/", false));
+        assertTrue(cookie.matches("www.example.com", "/a/b/x/y", false));
+        assertFalse(cookie.matches("www.example.com", "/a/bc", false));
+        assertFalse(cookie.matches("www.example.com", "/a", false));
+
+        cookie = parse("a=1", "http://www.example.com/top");
+        assertTrue(cookie.matches("www.example.com", "/", false));
+        assertTrue(cookie.matches("www.example.com", "/other", false));
+
+        // "/"で始まらない Pathは 指定されていないものとして扱う
+        cookie = parse("a=1; Path=docs", "http://www.example.com/a/b");
+        assertTrue(cookie.matches("www.example.com", "/a/x", false));
+        assertFalse(cookie.matches("www.example.com", "/docs", false));
+    }
+
+    @Test
+    public void path_matchesPrefixAtSegment() throws Exception {
+        HttpCookieJar.Cookie cookie = parse("a=1; Path=/docs", "http://www.example.com/");
+        assertTrue(cookie.matches("www.example.com", "/docs", false));
+        assertTrue(cookie.matches("www.example.com", "/docs/web", false));
+        assertFalse(cookie.matches("www.example.com", "/docsets", false));
+        assertFalse(cookie.matches("www.example.com", "/", false));
+
+        cookie = parse("a=1; Path=/docs/", "http://www.example.com/");
+        assertTrue(cookie.matches("www.example.com", "/docs/web", false));
+        assertFalse(cookie.matches("www.example.com", "/docs", false));
+    }
+
+    @Test
+    public void secure_notSentOverHttp() throws Exception {
+        HttpCookieJar.Cookie cookie = parse("a=1; Secure", "https://www.example.com/");
+        assertTrue(cookie.matches("www.example.com", "/", true));
+        assertFalse(cookie.matches("www.example.com", "/", false));
+        assertTrue(parse("a=1", "https://www.example.com/").matches("www.example.com", "/", false));
+    }
+
+    @Test
+    public void expiry() throws Exception {
+        // セッションCookie
+        assertFalse(parse("a=1", "http://www.example.com/").isExpired(Long.MAX_VALUE));
+
+        HttpCookieJar.Cookie cookie = parse("a=1; Max-Age=60", "http://www.example.com/");
+        assertFalse(cookie.isExpired(NOW + 59999));
+        assertTrue(cookie.isExpired(NOW + 60000));
+
+        // 0以下は 削除の指定
+        assertTrue(parse("a=1; Max-Age=0", "http://www.example.com/").isExpired(NOW));
+        assertTrue(parse("a=1; Max-Age=-1", "http://www.example.com/").isExpired(NOW));
+
+        assertTrue(parse("a=1; Expires=Sun, 06 Nov 1994 08:49:37 GMT", "http://www.example.com/").isExpired(NOW));
+        assertFalse(parse("a=1; Expires=Sun, 06 Nov 1994 08:49:37 GMT", "http://www.example.com/").isExpired(784111776999L));
+        // Max-Ageは Expiresより優先する
+        assertFalse(parse("a=1; Expires=Sun, 06 Nov 1994 08:49:37 GMT; Max-Age=60", "http://www.example.com/").isExpired(NOW));
+        // 不正な値は 無視する
+        assertFalse(parse("a=1; Max-Age=abc; Expires=invalid", "http://www.example.com/").isExpired(Long.MAX_VALUE));
+    }
+
+
+    private static HttpCookieJar.Cookie parse(String setCookie, String url) throws Exception {
+        URL target = new URL(url);
+        return HttpCookieJar.Cookie.parse(setCookie, target, target.getHost().toLowerCase(Locale.ENGLISH), NOW);
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.insprout.okblib.network;
+
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpFormEncoderの エンコード結果が URLEncoder.encode()と一致することを確認する
+ */
+public class HttpFormEncoderTest {
+    private final static String[] CHARSETS = { "UTF-8", "Shift_JIS", "EUC-JP", "ISO-8859-1", "UTF-16" };
+
+    private final static String[] TEXTS = {
+            "",
+            "abcXYZ019.-*_",
+            "a b+c&d=e/f?g#h%i~j!k'l(m)n",
+            "日本語のテキスト",
+            "半角 ｶﾅ と 全角　スペース",
+            "été ßñ",
+            "emoji 😀 end",
+            "😀😁",
+    };
+
+    // 対になっていないサロゲートを含む文字列
+    private final static String[] LONE_SURROGATES = {
+            "\ud83d",
+            "\ude00",
+            "a\ud83db",
+            "a\ude00b",
+            "\ude00\ud83d",
+            "\ud83d😀",
+            "end\ud83d",
+            "\ud83d \ude00",
+    };
+
+
+    @Test
+    public void encode_asciiCharsMatchUrlEncoder() throws Exception {
+        for (char c = 0; c < 128; c++) {
+            String text = String.valueOf(c);
+            assertEquals("char " + (int)c, URLEncoder.encode(text, "UTF-8"), encode(text, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void encode_textsMatchUrlEncoder() throws Exception {
+        for (String charsetName : CHARSETS) {
+            Charset charset = Charset.forName(charsetName);
+            for (String text : TEXTS) {
+                assertEquals(charsetName + " " + text, URLEncoder.encode(text, charsetName), encode(text, charset));
+            }
+        }
+    }
+
+    @Test
+    public void encode_loneSurrogatesMatchUrlEncoder() throws Exception {
+        for (String charsetName : CHARSETS) {
+            Charset charset = Charset.forName(charsetName);
+            for (String text : LONE_SURROGATES) {
+                assertEquals(charsetName + " " + Arrays.toString(text.toCharArray()),
+                        URLEncoder.encode(text, charsetName), encode(text, charset));
+            }
+        }
+    }
+
+    @Test
+    public void encode_nullTextWritesNothing() {
+        assertEquals(3, HttpFormEncoder.encode((String)null, StandardCharsets.UTF_8, null, 3));
+    }
+
+    @Test
+    public void encode_writesFromOffset() {
+        byte[] dest = new byte[10];
+        Arrays.fill(dest, (byte)'#');
+        int end = HttpFormEncoder.encode("a b", StandardCharsets.UTF_8, dest, 2);
+        assertEquals(5, end);
+        assertEquals("##a+b#####", new String(dest, StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void toString_matchesUrlEncoder() throws Exception {
+        List<HttpParameter> params = new ArrayList<>();
+        params.add(new HttpParameter("name", "山田 太郎"));
+        params.add(null);
+        params.add(new HttpParameter("", "skipped"));
+        params.add(new HttpParameter(null, "skipped"));
+        params.add(new HttpParameter("emoji", "😀\ud83d"));
+        params.add(new HttpParameter("empty", ""));
+        params.add(new HttpParameter("a&b", "c=d"));
+
+        for (String charsetName : CHARSETS) {
+            Charset charset = Charset.forName(charsetName);
+            String expected = toQueryString(params, charsetName);
+            assertEquals(charsetName, expected, HttpFormEncoder.toString(params, charset));
+            assertArrayEquals(expected.getBytes(StandardCharsets.ISO_8859_1), HttpFormEncoder.toBytes(params, charset));
+        }
+    }
+
+    @Test
+    public void toString_skipsEmptyNames() {
+        List<HttpParameter> params = new ArrayList<>();
+        params.add(new HttpParameter("", "x"));
+        params.add(new HttpParameter("a", "1"));
+        params.add(new HttpParameter("", "y"));
+        params.add(new HttpParameter("b", "2"));
+        assertEquals("a=1&b=2", HttpFormEncoder.toString(params, StandardCharsets.UTF_8));
+
+        params.remove(3);
+        params.remove(1);
+        assertEquals("", HttpFormEncoder.toString(params, StandardCharsets.UTF_8));
+        assertEquals(0, HttpFormEncoder.toBytes(null, StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void getCharset_returnsNullForUnsupported() {
+        assertEquals(StandardCharsets.UTF_8, HttpFormEncoder.getCharset("UTF-8"));
+        assertSame(HttpFormEncoder.getCharset("Shift_JIS"), HttpFormEncoder.getCharset("Shift_JIS"));
+        assertNull(HttpFormEncoder.getCharset("no-such-charset"));
+        assertNull(HttpFormEncoder.getCharset("illegal name!"));
+        assertNull(HttpFormEncoder.getCharset(null));
+    }
+
+
+    // バイト数を数えてから 書き込む (HttpFormEncoder.toBytes()と同じ手順)
+    private static String encode(String text, Charset charset) {
+        int length = HttpFormEncoder.encode(text, charset, null, 0);
+        byte[] dest = new byte[length];
+        assertEquals(length, HttpFormEncoder.encode(text, charset, dest, 0));
+        return new String(dest, StandardCharsets.ISO_8859_1);
+    }
+
+    // URLEncoderを使用した エンコード (HttpFormEncoderの導入前の処理)
+    private static String toQueryString(List<HttpParameter> params, String charsetName) throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (HttpParameter param : params) {
+            if (param == null || param.getName() == null || param.getName().isEmpty()) continue;
+            if (builder.length() > 0) builder.append('&');
+            builder.append(URLEncoder.encode(param.getName(), charsetName)).append('=');
+            if (param.getValue() != null) builder.append(URLEncoder.encode(param.getValue(), charsetName));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.insprout.okblib.network;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpHeadersと、HttpResponseの ヘッダの取得を確認する
+ */
+public class HttpHeadersTest {
+
+    @Test
+    public void get_ignoresCaseAndReturnsFirstValue() {
+        HttpHeaders headers = new HttpHeaders.Builder()
+                .add("Set-Cookie", "a=1")
+                .add("Content-Type", "text/plain")
+                .add("set-cookie", "b=2")
+                .build();
+        assertEquals(3, headers.size());
+        assertEquals("a=1", headers.get("SET-COOKIE"));
+        assertEquals("text/plain", headers.get("content-type"));
+        assertNull(headers.get("X-None"));
+        assertNull(headers.get(null));
+    }
+
+    @Test
+    public void getAll_keepsReceivedOrder() {
+        HttpHeaders headers = new HttpHeaders.Builder()
+                .add("Set-Cookie", "a=1")
+                .add("Vary", "Accept")
+                .add("set-cookie", "b=2")
+                .add("SET-COOKIE", "c=3")
+                .build();
+        assertEquals(Arrays.asList("a=1", "b=2", "c=3"), headers.getAll("Set-Cookie"));
+        assertEquals(Collections.<String>emptyList(), headers.getAll("X-None"));
+        assertEquals(Collections.<String>emptyList(), headers.getAll(null));
+        // 受信した順序と 名前の表記を そのまま保持する
+        assertEquals("set-cookie", headers.name(2));
+        assertEquals("b=2", headers.value(2));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getAll_isUnmodifiable() {
+        HttpHeaders headers = new HttpHeaders.Builder().add("Vary", "Accept").build();
+        headers.getAll("Vary").add("Cookie");
+    }
+
+    @Test
+    public void builder_setAndRemoveAllIgnoreCase() {
+        HttpHeaders headers = new HttpHeaders.Builder()
+                .add("Accept", "a")
+                .add("ACCEPT", "b")
+                .add("Host", "example.com")
+                .set("accept", "c")
+                .build();
+        assertEquals(Arrays.asList("c"), headers.getAll("Accept"));
+        assertEquals("Host", headers.name(0));
+
+        headers = headers.newBuilder().removeAll("HOST").build();
+        assertEquals(1, headers.size());
+        assertNull(headers.get("Host"));
+    }
+
+    @Test
+    public void builder_nullValueIsEmpty() {
+        HttpHeaders headers = new HttpHeaders.Builder().add("X-Empty", null).build();
+        assertEquals("", headers.get("X-Empty"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builder_rejectsNullName() {
+        new HttpHeaders.Builder().add(null, "value");
+    }
+
+    @Test
+    public void newBuilder_doesNotChangeOriginal() {
+        HttpHeaders original = new HttpHeaders.Builder().add("Accept", "a").build();
+        HttpHeaders copy = original.newBuilder().add("Accept", "b").build();
+        assertEquals(Arrays.asList("a"), original.getAll("Accept"));
+        assertEquals(Arrays.asList("a", "b"), copy.getAll("Accept"));
+    }
+
+    @Test
+    public void empty() {
+        assertEquals(0, HttpHeaders.empty().size());
+        assertSame(HttpHeaders.empty(), new HttpHeaders.Builder().build());
+        assertEquals(-1, HttpHeaders.empty().getContentLength());
+        assertEquals(-1, HttpHeaders.empty().getDate());
+    }
+
+    @Test
+    public void getContentLength() {
+        assertEquals(5000000000L, new HttpHeaders.Builder().add("content-length", " 5000000000 ").build().getContentLength());
+        assertEquals(-1, new HttpHeaders.Builder().add("Content-Length", "abc").build().getContentLength());
+    }
+
+    @Test
+    public void getDate() {
+        HttpHeaders headers = new HttpHeaders.Builder()
+                .add("Date", "Sun, 06 Nov 1994 08:49:37 GMT")
+                .add("Expires", "Sunday, 06-Nov-94 08:49:38 GMT")
+                .add("Last-Modified", "invalid")
+                .build();
+        assertEquals(784111777000L, headers.getDate());
+        assertEquals(784111777000L, headers.getDate("date"));
+        assertEquals(784111778000L, headers.getDate("Expires"));
+        assertEquals(-1, headers.getDate("Last-Modified"));
+        assertEquals(-1, headers.getDate("X-None"));
+    }
+
+    @Test
+    public void getCacheControl_joinsAllValues() {
+        HttpHeaders headers = new HttpHeaders.Builder()
+                .add("Cache-Control", "no-cache")
+                .add("cache-control", "max-age=5")
+                .build();
+        HttpCacheControl cacheControl = headers.getCacheControl();
+        assertTrue(cacheControl.isNoCache());
+        assertEquals(5, cacheControl.getMaxAgeSeconds());
+    }
+
+    @Test
+    public void response_headersAccessors() {
+        HttpHeaders headers = new HttpHeaders.Builder()
+                .add("X-Multi", "a")
+                .add("x-multi", "b")
+                .build();
+        HttpResponse response = new HttpResponse(200, new byte[0], headers, 0, 0);
+        assertSame(headers, response.getHeaders());
+        assertEquals("a", response.getResponseHeader("X-MULTI"));
+        assertEquals(Arrays.asList("a", "b"), response.getResponseHeaders("x-Multi"));
+        assertEquals(0, new HttpResponse(200, null, null, 0, 0).getHeaders().size());
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void response_mapCompatibility() {
+        Map<String, String> map = new HashMap<>();
+        map.put(null, "HTTP/1.1 200 OK");
+        map.put("Content-Type", "text/plain");
+        HttpResponse response = new HttpResponse(200, "abc".getBytes(), map);
+        assertEquals(1, response.getHeaders().size());
+        assertEquals("text/plain", response.getResponseHeader("content-type"));
+        assertEquals(3, response.getDecodedLength());
+        assertEquals(0, new HttpResponse(404, null, null).getHeaders().size());
+
+        HttpHeaders headers = new HttpHeaders.Builder()
+                .add("X-Multi", "a")
+                .add("x-multi", "b")
+                .build();
+        response = new HttpResponse(200, null, headers, 0, 0);
+        // getResponseHeader()は 最初の値、getResponseHeaders()は 全ての値を返す
+        assertEquals("a", response.getResponseHeader("X-MULTI"));
+        assertEquals(Arrays.asList("a", "b"), response.getResponseHeaders("x-multi"));
+    }
+
+}
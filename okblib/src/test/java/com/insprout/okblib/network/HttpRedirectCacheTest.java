@@ -0,0 +1,133 @@
+package com.insprout.okblib.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpRedirectCacheによる 恒久的なリダイレクト(301, 308)の記録と、HttpRequestでの 転送先への直接のリクエストを確認する
+ */
+public class HttpRedirectCacheTest {
+    private final static String BASE = "http://127.0.0.1";
+
+    @Test
+    public void resolve_followsRecordedRedirects() {
+        HttpRedirectCache.clear();
+        HttpRedirectCache.put(BASE + "/a", BASE + "/b", 301);
+        HttpRedirectCache.put(BASE + "/b", BASE + "/c", 308);
+        assertEquals(BASE + "/c", HttpRedirectCache.resolve(BASE + "/a", true, 10));
+        assertEquals(BASE + "/b", HttpRedirectCache.resolve(BASE + "/a", true, 1));
+        // 301の記録を使用しない場合は 308のみ辿る
+        assertEquals(BASE + "/a", HttpRedirectCache.resolve(BASE + "/a", false, 10));
+        assertEquals(BASE + "/c", HttpRedirectCache.resolve(BASE + "/b", false, 10));
+        assertEquals(BASE + "/x", HttpRedirectCache.resolve(BASE + "/x", true, 10));
+    }
+
+    @Test
+    public void resolve_stopsAtMaxHops() {
+        HttpRedirectCache.clear();
+        // 自身への転送は 記録しない
+        HttpRedirectCache.put(BASE + "/a", BASE + "/a", 301);
+        assertEquals(BASE + "/a", HttpRedirectCache.resolve(BASE + "/a", true, 10));
+
+        // 循環する転送は 上限の回数で止まる
+        HttpRedirectCache.put(BASE + "/a", BASE + "/b", 301);
+        HttpRedirectCache.put(BASE + "/b", BASE + "/a", 301);
+        assertEquals(BASE + "/b", HttpRedirectCache.resolve(BASE + "/a", true, 3));
+        assertEquals(BASE + "/a", HttpRedirectCache.resolve(BASE + "/a", true, 4));
+    }
+
+    @Test
+    public void movedPermanently_requestsLocationDirectly() {
+        HttpRequest.clearRedirectCache();
+        FakeHttpEngine engine = new FakeHttpEngine(new RedirectResponder(301));
+        assertEquals("new", get(engine, "/old").getResponseBody());
+        assertEquals("new", get(engine, "/old").getResponseBody());
+        // 2回目は リダイレクトを受け取らずに 転送先に直接リクエストする
+        assertEquals(Arrays.asList("/old", "/new", "/new"), paths(engine));
+
+        HttpRequest.clearRedirectCache();
+        get(engine, "/old");
+        assertEquals(Arrays.asList("/old", "/new", "/new", "/old", "/new"), paths(engine));
+    }
+
+    @Test
+    public void temporaryRedirect_notRecorded() {
+        HttpRequest.clearRedirectCache();
+        FakeHttpEngine engine = new FakeHttpEngine(new RedirectResponder(302));
+        assertEquals("new", get(engine, "/old").getResponseBody());
+        assertEquals("new", get(engine, "/old").getResponseBody());
+        assertEquals(Arrays.asList("/old", "/new", "/old", "/new"), paths(engine));
+    }
+
+    @Test
+    public void post_usesPermanentRedirectOnly() {
+        HttpRequest.clearRedirectCache();
+        // POSTに対する 301は GETに変更されるので、記録していても POSTでは使用しない
+        FakeHttpEngine engine = new FakeHttpEngine(new RedirectResponder(301));
+        get(engine, "/old");
+        post(engine, "/old");
+        assertEquals(Arrays.asList("/old", "/new", "/old", "/new"), paths(engine));
+        assertEquals("GET", engine.getRequests().get(3).getMethod());
+
+        // 308は メソッドと bodyを引き継ぐので、POSTでも 転送先に直接リクエストする
+        HttpRequest.clearRedirectCache();
+        engine = new FakeHttpEngine(new RedirectResponder(308));
+        post(engine, "/old");
+        assertEquals("new", post(engine, "/old").getResponseBody());
+        assertEquals(Arrays.asList("/old", "/new", "/new"), paths(engine));
+        assertEquals("POST", engine.getRequests().get(2).getMethod());
+        assertTrue(engine.getRequests().get(2).hasBody());
+    }
+
+    @Test
+    public void noFollow_returnsRedirect() {
+        HttpRequest.clearRedirectCache();
+        FakeHttpEngine engine = new FakeHttpEngine(new RedirectResponder(301));
+        get(engine, "/old");
+        // リダイレクトを辿らない場合は 記録も使用しない
+        HttpResponse response = new HttpRequest(HttpRequest.METHOD_GET, BASE + "/old").setEngine(engine).followRedirects(0).execute(null);
+        assertEquals(301, response.getHttpStatus());
+        assertEquals(Arrays.asList("/old", "/new", "/old"), paths(engine));
+    }
+
+
+    private static HttpResponse get(FakeHttpEngine engine, String path) {
+        return new HttpRequest(HttpRequest.METHOD_GET, BASE + path).setEngine(engine).execute(null);
+    }
+
+    private static HttpResponse post(FakeHttpEngine engine, String path) {
+        return new HttpRequest(HttpRequest.METHOD_POST, BASE + path).setEngine(engine)
+                .setContent("a=1".getBytes(), "application/x-www-form-urlencoded").execute(null);
+    }
+
+    private static List<String> paths(FakeHttpEngine engine) {
+        List<String> paths = new ArrayList<>();
+        for (HttpEngineRequest request : engine.getRequests()) {
+            paths.add(request.getUrl().getPath());
+        }
+        return paths;
+    }
+
+    // "/old"への リクエストを "/new"に転送する
+    private static class RedirectResponder implements FakeHttpEngine.Responder {
+        private final int mStatus;
+
+        RedirectResponder(int status) {
+            mStatus = status;
+        }
+
+        @Override
+        public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+            if ("/old".equals(request.getUrl().getPath())) {
+                return new FakeHttpEngine.FakeResponse(mStatus).header("Location", "/new").body("moved");
+            }
+            return new FakeHttpEngine.FakeResponse(200).body("new");
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.insprout.okblib.network;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpRequestの レスポンスbodyの読み込み(toBytes)と、タグによる一括キャンセルを確認する
+ */
+public class HttpRequestTest {
+
+    @Test
+    public void toBytes_exactContentLength() throws Exception {
+        byte[] body = createBody(100000);
+        assertArrayEquals(body, toBytes(body, body.length));
+        assertArrayEquals(new byte[0], toBytes(new byte[0], 0));
+    }
+
+    @Test
+    public void toBytes_shorterThanContentLength() throws Exception {
+        byte[] body = createBody(1000);
+        assertArrayEquals(body, toBytes(body, 5000));
+    }
+
+    @Test
+    public void toBytes_oneByteLongerThanContentLength() throws Exception {
+        byte[] body = createBody(1001);
+        assertArrayEquals(body, toBytes(body, 1000));
+        assertArrayEquals(new byte[] { 'a' }, toBytes(new byte[] { 'a' }, 0));
+    }
+
+    @Test
+    public void toBytes_longerThanContentLength() throws Exception {
+        byte[] body = createBody(100000);
+        assertArrayEquals(body, toBytes(body, 10));
+        assertArrayEquals(body, toBytes(body, 99998));
+        assertArrayEquals(body, toBytes(body, 0));
+    }
+
+    @Test
+    public void toBytes_unknownContentLength() throws Exception {
+        byte[] body = createBody(100000);
+        assertArrayEquals(body, toBytes(body, -1));
+        assertArrayEquals(new byte[0], toBytes(new byte[0], -1));
+    }
+
+    @Test
+    public void tag_unregisteredAfterExecute() throws Exception {
+        Object tag = new Object();
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                return new FakeHttpEngine.FakeResponse(200).body("ok");
+            }
+        });
+        HttpRequest request = new HttpRequest(HttpRequest.METHOD_GET, "http://127.0.0.1/").setEngine(engine).setTag(tag);
+        assertEquals(1, HttpRequest.countTaggedRequests(tag));
+        assertEquals(200, request.execute(null).getHttpStatus());
+        // 実行を終えた後は タグを保持しない
+        assertEquals(0, HttpRequest.countTaggedRequests(tag));
+
+        // 再度実行する場合も 実行中は 一括キャンセルの対象となる
+        assertEquals(200, request.execute(null).getHttpStatus());
+        assertEquals(0, HttpRequest.countTaggedRequests(tag));
+    }
+
+    @Test
+    public void cancelAll_abortsRunningRequest() throws Exception {
+        final Object tag = new Object();
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) throws IOException {
+                connected.countDown();
+                try {
+                    cancelled.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new FakeHttpEngine.FakeResponse(200).body("ok");
+            }
+        });
+        final HttpRequest request = new HttpRequest(HttpRequest.METHOD_GET, "http://127.0.0.1/").setEngine(engine).setTag(tag);
+        final HttpResponse[] response = { null };
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                response[0] = request.execute(null);
+            }
+        });
+        thread.start();
+
+        assertTrue(connected.await(10, TimeUnit.SECONDS));
+        HttpRequest.cancelAll(tag);
+        cancelled.countDown();
+        thread.join(10000);
+        assertEquals(HttpRequest.STATUS_INTERRUPTED, response[0].getHttpStatus());
+        assertEquals(0, HttpRequest.countTaggedRequests(tag));
+    }
+
+
+    private static byte[] toBytes(byte[] body, long contentLength) throws Exception {
+        HttpRequest request = new HttpRequest(HttpRequest.METHOD_GET, "http://127.0.0.1/");
+        return request.toBytes(new ChunkedInputStream(new ByteArrayInputStream(body)), contentLength);
+    }
+
+    // 0xFF(-1と間違えやすい値)を含む データ
+    private static byte[] createBody(int length) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) body[i] = (byte)(255 - i % 251);
+        return body;
+    }
+
+    // 通信と同じように 少しずつしか 読み込めないストリーム
+    private static class ChunkedInputStream extends FilterInputStream {
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, 1000));
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.insprout.okblib.network;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpRequestの resumeDownload()による 受信の再開(Range/If-Range)を確認する
+ */
+public class HttpResumeDownloadTest {
+    private final static String URL = "http://127.0.0.1/file.bin";
+    private final static String ETAG = "\"v1\"";
+    private final static byte[] DATA = createData(100000);
+    private final static int FAIL_AFTER = 30000;
+
+
+    @Test
+    public void resume_requestsRestWithIfRange() throws Exception {
+        File file = createTempFile();
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                if (index == 0) return full().failAfter(FAIL_AFTER);
+                return range(request, 0);
+            }
+        });
+
+        assertEquals(HttpRequest.STATUS_ERROR_FILEIO, download(engine, file).getHttpStatus());
+        assertFalse(file.exists());
+        assertEquals(FAIL_AFTER, partFile(file).length());
+
+        HttpResponse response = download(engine, file);
+        assertEquals(200, response.getHttpStatus());
+        assertEquals(DATA.length - FAIL_AFTER, response.getReceivedLength());
+        assertArrayEquals(DATA, readFile(file));
+        assertFalse(partFile(file).exists());
+
+        HttpEngineRequest resumed = engine.getRequests().get(1);
+        assertEquals("bytes=" + FAIL_AFTER + "-", resumed.getHeaders().get("Range"));
+        assertEquals(ETAG, resumed.getHeaders().get("If-Range"));
+    }
+
+    @Test
+    public void resume_onRetry() throws Exception {
+        File file = createTempFile();
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                if (index == 0) return full().failAfter(FAIL_AFTER);
+                return range(request, 0);
+            }
+        });
+
+        // リトライでは 受信できた分の続きから受信する
+        HttpResponse response = new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine).resumeDownload(true)
+                .setRetryPolicy(new HttpRetryPolicy().setMaxRetries(1).setDelay(0, 0)).execute(file);
+        assertEquals(200, response.getHttpStatus());
+        assertArrayEquals(DATA, readFile(file));
+        assertEquals(2, engine.getRequestCount());
+        assertEquals("bytes=" + FAIL_AFTER + "-", engine.getRequests().get(1).getHeaders().get("Range"));
+    }
+
+    @Test
+    public void resume_restartsWhenResourceChanged() throws Exception {
+        File file = createTempFile();
+        final byte[] changed = createData(5000);
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                if (index == 0) return full().failAfter(FAIL_AFTER);
+                // If-Rangeが 一致しないので 全体を返す
+                return new FakeHttpEngine.FakeResponse(200).header("ETag", "\"v2\"").body(changed);
+            }
+        });
+
+        download(engine, file);
+        assertEquals(200, download(engine, file).getHttpStatus());
+        assertArrayEquals(changed, readFile(file));
+    }
+
+    @Test
+    public void resume_restartsOnUnexpectedContentRange() throws Exception {
+        File file = createTempFile();
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                if (index == 0) return full().failAfter(FAIL_AFTER);
+                // 要求した位置と 異なる範囲を返す
+                if (request.getHeaders().get("Range") != null) return range(request, -1000);
+                return full();
+            }
+        });
+
+        download(engine, file);
+        assertEquals(200, download(engine, file).getHttpStatus());
+        assertArrayEquals(DATA, readFile(file));
+        assertEquals(3, engine.getRequestCount());
+        // 一時ファイルを破棄して 範囲指定なしで 受信し直す
+        assertNull(engine.getRequests().get(2).getHeaders().get("Range"));
+        assertFalse(partFile(file).exists());
+    }
+
+    @Test
+    public void resume_restartsOnRangeNotSatisfiable() throws Exception {
+        File file = createTempFile();
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                if (index == 0) return full().failAfter(FAIL_AFTER);
+                if (request.getHeaders().get("Range") != null) {
+                    return new FakeHttpEngine.FakeResponse(416).header("Content-Range", "bytes */10").body("");
+                }
+                return full();
+            }
+        });
+
+        download(engine, file);
+        assertEquals(200, download(engine, file).getHttpStatus());
+        assertArrayEquals(DATA, readFile(file));
+        assertNull(engine.getRequests().get(2).getHeaders().get("Range"));
+    }
+
+    @Test
+    public void noResume_withoutValidator() throws Exception {
+        File file = createTempFile();
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                // ETag, Last-Modifiedがないので 再開できない
+                FakeHttpEngine.FakeResponse response = new FakeHttpEngine.FakeResponse(200).body(DATA);
+                return (index == 0 ? response.failAfter(FAIL_AFTER) : response);
+            }
+        });
+
+        download(engine, file);
+        assertEquals(200, download(engine, file).getHttpStatus());
+        assertArrayEquals(DATA, readFile(file));
+        assertNull(engine.getRequests().get(1).getHeaders().get("Range"));
+    }
+
+
+    private static HttpResponse download(FakeHttpEngine engine, File file) {
+        // 2回目の実行で 続きから受信するのを確認するため、リトライは行わない
+        return new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine).resumeDownload(true).setRetryPolicy(null).execute(file);
+    }
+
+    private static FakeHttpEngine.FakeResponse full() {
+        return new FakeHttpEngine.FakeResponse(200).header("ETag", ETAG).body(DATA);
+    }
+
+    // Rangeヘッダの範囲を返す。shiftを指定した場合は 開始位置をずらす
+    private static FakeHttpEngine.FakeResponse range(HttpEngineRequest request, int shift) {
+        String range = request.getHeaders().get("Range");
+        int start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-'))) + shift;
+        return new FakeHttpEngine.FakeResponse(206)
+                .header("ETag", ETAG)
+                .header("Content-Range", "bytes " + start + "-" + (DATA.length - 1) + "/" + DATA.length)
+                .body(Arrays.copyOfRange(DATA, start, DATA.length));
+    }
+
+    private static File partFile(File file) {
+        return new File(file.getPath() + ".part");
+    }
+
+    private static File createTempFile() throws IOException {
+        File file = File.createTempFile("okblib", ".bin");
+        file.delete();
+        file.deleteOnExit();
+        partFile(file).deleteOnExit();
+        new File(partFile(file).getPath() + ".info").deleteOnExit();
+        return file;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int)file.length()];
+        try (InputStream inStream = new FileInputStream(file)) {
+            int offset = 0;
+            int size;
+            while (offset < bytes.length && (size = inStream.read(bytes, offset, bytes.length - offset)) != -1) offset += size;
+        }
+        return bytes;
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte)(i * 31 + i / 256);
+        return data;
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.insprout.okblib.network;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+import javax.net.ssl.SSLHandshakeException;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpRetryPolicyの リトライの判定と待機時間、HttpRequestでの リトライの実行を確認する
+ */
+public class HttpRetryPolicyTest {
+    private final static String URL = "http://127.0.0.1/";
+    private final static long NOW = 784111777000L;                 // Sun, 06 Nov 1994 08:49:37 GMT
+
+    @Test
+    public void parseRetryAfter_seconds() {
+        assertEquals(120000, HttpRetryPolicy.parseRetryAfter("120", NOW));
+        assertEquals(5000, HttpRetryPolicy.parseRetryAfter(" 5 ", NOW));
+        assertEquals(0, HttpRetryPolicy.parseRetryAfter("-3", NOW));
+    }
+
+    @Test
+    public void parseRetryAfter_date() {
+        assertEquals(30000, HttpRetryPolicy.parseRetryAfter("Sun, 06 Nov 1994 08:50:07 GMT", NOW));
+        // 過去の日時は 待機しない
+        assertEquals(0, HttpRetryPolicy.parseRetryAfter("Sun, 06 Nov 1994 08:49:00 GMT", NOW));
+    }
+
+    @Test
+    public void parseRetryAfter_invalid() {
+        assertEquals(-1, HttpRetryPolicy.parseRetryAfter(null, NOW));
+        assertEquals(-1, HttpRetryPolicy.parseRetryAfter("", NOW));
+        assertEquals(-1, HttpRetryPolicy.parseRetryAfter("soon", NOW));
+    }
+
+    @Test
+    public void getRetryDelay_backoffAndMaxRetries() {
+        HttpRetryPolicy policy = new HttpRetryPolicy().setMaxRetries(3).setDelay(100, 250).setJitter(0);
+        HttpResponse response = new HttpResponse(503);
+        assertEquals(100, policy.getRetryDelay("GET", 1, response, null, true, 0));
+        assertEquals(200, policy.getRetryDelay("GET", 2, response, null, true, 0));
+        // 待機時間の上限
+        assertEquals(250, policy.getRetryDelay("GET", 3, response, null, true, 0));
+        assertEquals(-1, policy.getRetryDelay("GET", 4, response, null, true, 0));
+    }
+
+    @Test
+    public void getRetryDelay_jitter() {
+        HttpRetryPolicy policy = new HttpRetryPolicy().setDelay(1000, 1000).setJitter(0.5);
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.getRetryDelay("GET", 1, new HttpResponse(503), null, true, 0);
+            assertTrue(delay >= 500 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void getRetryDelay_totalTimeBudget() {
+        HttpRetryPolicy policy = new HttpRetryPolicy().setDelay(100, 100).setJitter(0).setMaxTotalTime(1000);
+        assertEquals(100, policy.getRetryDelay("GET", 1, new HttpResponse(503), null, true, 900));
+        // 待機後に 上限を超える場合は リトライしない
+        assertEquals(-1, policy.getRetryDelay("GET", 1, new HttpResponse(503), null, true, 901));
+    }
+
+    @Test
+    public void getRetryDelay_statusesAndErrors() {
+        HttpRetryPolicy policy = new HttpRetryPolicy().setDelay(100, 100).setJitter(0);
+        assertEquals(100, policy.getRetryDelay("GET", 1, new HttpResponse(429), null, true, 0));
+        assertEquals(-1, policy.getRetryDelay("GET", 1, new HttpResponse(500), null, true, 0));
+        assertEquals(-1, policy.getRetryDelay("GET", 1, new HttpResponse(404), null, true, 0));
+        assertEquals(100, policy.getRetryDelay("GET", 1, new HttpResponse(HttpRequest.STATUS_ERROR_TIMEOUT), new IOException(), true, 0));
+        // 証明書のエラーは リトライしない
+        assertEquals(-1, policy.getRetryDelay("GET", 1, new HttpResponse(HttpRequest.STATUS_ERROR_FILEIO), new SSLHandshakeException("cert"), true, 0));
+
+        policy.setRetryStatuses(500);
+        assertEquals(100, policy.getRetryDelay("GET", 1, new HttpResponse(500), null, true, 0));
+        assertEquals(-1, policy.getRetryDelay("GET", 1, new HttpResponse(503), null, true, 0));
+    }
+
+    @Test
+    public void getRetryDelay_nonIdempotent() {
+        HttpRetryPolicy policy = new HttpRetryPolicy().setDelay(100, 100).setJitter(0);
+        assertEquals(-1, policy.getRetryDelay("POST", 1, new HttpResponse(503), null, true, 0));
+        // 送信していなければ リトライできる
+        assertEquals(100, policy.getRetryDelay("POST", 1, new HttpResponse(HttpRequest.STATUS_INTERRUPTED), new ConnectException(), false, 0));
+        assertEquals(100, policy.getRetryDelay("PUT", 1, new HttpResponse(503), null, true, 0));
+
+        policy.retryNonIdempotent(true);
+        assertEquals(100, policy.getRetryDelay("POST", 1, new HttpResponse(503), null, true, 0));
+    }
+
+    @Test
+    public void getRetryDelay_retryAfter() {
+        HttpRetryPolicy policy = new HttpRetryPolicy().setDelay(100, 100).setJitter(0);
+        HttpResponse response = new HttpResponse(503, null, new HttpHeaders.Builder().add("Retry-After", "2").build(), 0, 0);
+        assertEquals(2000, policy.getRetryDelay("GET", 1, response, null, true, 0));
+        // 上限時間を超える Retry-Afterの場合は リトライしない
+        assertEquals(-1, policy.getRetryDelay("GET", 1, response, null, true, 29000));
+
+        policy.honorRetryAfter(false);
+        assertEquals(100, policy.getRetryDelay("GET", 1, response, null, true, 0));
+    }
+
+
+    @Test
+    public void execute_retriesWithRetryAfter() {
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                if (index == 0) return new FakeHttpEngine.FakeResponse(503).header("Retry-After", "0").body("busy");
+                return new FakeHttpEngine.FakeResponse(200).body("ok");
+            }
+        });
+        // バックオフでは 上限時間を超えるので、Retry-Afterに従った場合のみ リトライする
+        HttpRetryPolicy policy = new HttpRetryPolicy().setDelay(60000, 60000).setJitter(0);
+        HttpResponse response = new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine).setRetryPolicy(policy).execute(null);
+        assertEquals(200, response.getHttpStatus());
+        assertEquals("ok", response.getResponseBody());
+        assertEquals(2, engine.getRequestCount());
+    }
+
+    @Test
+    public void execute_retriesConnectFailure() {
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) throws IOException {
+                if (index < 2) throw new ConnectException("refused");
+                return new FakeHttpEngine.FakeResponse(200).body("ok");
+            }
+        });
+        // 送信前の失敗なので POSTでも リトライする
+        HttpResponse response = new HttpRequest(HttpRequest.METHOD_POST, URL).setEngine(engine)
+                .setContent("a=1".getBytes(), "application/x-www-form-urlencoded")
+                .setRetryPolicy(new HttpRetryPolicy().setDelay(0, 0)).execute(null);
+        assertEquals(200, response.getHttpStatus());
+        assertEquals(3, engine.getRequestCount());
+    }
+
+    @Test
+    public void execute_stopsAtMaxRetries() {
+        FakeHttpEngine.Responder responder = new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                return new FakeHttpEngine.FakeResponse(503).body("busy");
+            }
+        };
+        FakeHttpEngine engine = new FakeHttpEngine(responder);
+        HttpResponse response = new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine)
+                .setRetryPolicy(new HttpRetryPolicy().setMaxRetries(2).setDelay(0, 0)).execute(null);
+        assertEquals(503, response.getHttpStatus());
+        assertEquals("busy", response.getResponseBody());
+        assertEquals(3, engine.getRequestCount());
+
+        // 送信済みの POSTは リトライしない
+        engine = new FakeHttpEngine(responder);
+        response = new HttpRequest(HttpRequest.METHOD_POST, URL).setEngine(engine).setContent("a=1".getBytes(), "text/plain")
+                .setRetryPolicy(new HttpRetryPolicy().setDelay(0, 0)).execute(null);
+        assertEquals(503, response.getHttpStatus());
+        assertEquals(1, engine.getRequestCount());
+    }
+
+}
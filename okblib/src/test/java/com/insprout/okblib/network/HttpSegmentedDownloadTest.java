@@ -0,0 +1,195 @@
+package com.insprout.okblib.network;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpRequestの segmentedDownload()による 分割ダウンロードと、分割できない場合の 1本のストリームでの取得を確認する
+ */
+public class HttpSegmentedDownloadTest {
+    private final static String URL = "http://127.0.0.1/file.bin";
+    private final static String ETAG = "\"v1\"";
+    private final static int MB = 1024 * 1024;
+    private final static byte[] DATA = createData(3 * MB + 100);      // 4つの chunkに分割される
+
+
+    @Test
+    public void segmented_downloadsAllChunks() throws Exception {
+        File file = createTempFile();
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                return range(request);
+            }
+        });
+
+        HttpResponse response = download(engine, file, new HttpRetryPolicy());
+        assertEquals(200, response.getHttpStatus());
+        assertArrayEquals(DATA, readFile(file));
+        // 全体サイズを調べるための 1バイトと、4つの chunk
+        assertEquals(5, engine.getRequestCount());
+        for (HttpEngineRequest request : engine.getRequests().subList(1, 5)) {
+            assertEquals(ETAG, request.getHeaders().get("If-Range"));
+        }
+    }
+
+    @Test
+    public void emptyResource_fallsBackToSingleStream() throws Exception {
+        File file = createTempFile();
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                // 空のファイルは 先頭の1バイトを取得できない
+                if (request.getHeaders().get("Range") != null) {
+                    return new FakeHttpEngine.FakeResponse(416).header("Content-Range", "bytes */0").body("");
+                }
+                return new FakeHttpEngine.FakeResponse(200).body(new byte[0]);
+            }
+        });
+
+        assertEquals(200, download(engine, file, new HttpRetryPolicy()).getHttpStatus());
+        assertTrue(file.exists());
+        assertEquals(0, file.length());
+        assertEquals(2, engine.getRequestCount());
+    }
+
+    @Test
+    public void unknownLength_fallsBackToSingleStream() throws Exception {
+        File file = createTempFile();
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                if (request.getHeaders().get("Range") != null) {
+                    return new FakeHttpEngine.FakeResponse(206).header("Content-Range", "bytes 0-0/*").body(new byte[] { DATA[0] });
+                }
+                return new FakeHttpEngine.FakeResponse(200).body(DATA);
+            }
+        });
+
+        assertEquals(200, download(engine, file, new HttpRetryPolicy()).getHttpStatus());
+        assertArrayEquals(DATA, readFile(file));
+        assertEquals(2, engine.getRequestCount());
+        assertNull(engine.getRequests().get(1).getHeaders().get("Range"));
+    }
+
+    @Test
+    public void rangeNotSupported_usesProbeResponse() throws Exception {
+        File file = createTempFile();
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                return new FakeHttpEngine.FakeResponse(200).body(DATA);
+            }
+        });
+
+        assertEquals(200, download(engine, file, new HttpRetryPolicy()).getHttpStatus());
+        assertArrayEquals(DATA, readFile(file));
+        assertEquals(1, engine.getRequestCount());
+    }
+
+    @Test
+    public void chunkFailure_retriesRestOfChunk() throws Exception {
+        File file = createTempFile();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        FakeHttpEngine engine = new FakeHttpEngine(new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                FakeHttpEngine.FakeResponse response = range(request);
+                // 2番目の chunkは 1度だけ 途中で通信エラーとなる
+                if (request.getHeaders().get("Range").startsWith("bytes=" + MB + "-") && failed.compareAndSet(false, true)) {
+                    response.failAfter(1000);
+                }
+                return response;
+            }
+        });
+
+        HttpResponse response = download(engine, file, new HttpRetryPolicy().setMaxRetries(1).setDelay(0, 0));
+        assertEquals(200, response.getHttpStatus());
+        assertArrayEquals(DATA, readFile(file));
+        assertEquals(6, engine.getRequestCount());
+        // 受信できた分の 続きから取得する
+        assertEquals(1, countRequests(engine, "bytes=" + (MB + 1000) + "-"));
+    }
+
+    @Test
+    public void chunkFailure_followsRetryPolicy() throws Exception {
+        File file = createTempFile();
+        FakeHttpEngine.Responder responder = new FakeHttpEngine.Responder() {
+            @Override
+            public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) {
+                if (request.getHeaders().get("Range").startsWith("bytes=" + MB + "-")) {
+                    return new FakeHttpEngine.FakeResponse(503).body("busy");
+                }
+                return range(request);
+            }
+        };
+        FakeHttpEngine engine = new FakeHttpEngine(responder);
+
+        // リトライしない指定の場合は 最初の失敗で 全体を失敗とする
+        assertEquals(503, download(engine, file, null).getHttpStatus());
+        assertFalse(file.exists());
+        assertEquals(1, countRequests(engine, "bytes=" + MB + "-"));
+
+        engine = new FakeHttpEngine(responder);
+        assertEquals(503, download(engine, file, new HttpRetryPolicy().setMaxRetries(2).setDelay(0, 0)).getHttpStatus());
+        assertEquals(3, countRequests(engine, "bytes=" + MB + "-"));
+    }
+
+
+    private static HttpResponse download(FakeHttpEngine engine, File file, HttpRetryPolicy retryPolicy) {
+        return new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine).segmentedDownload(2).setRetryPolicy(retryPolicy).execute(file);
+    }
+
+    private static int countRequests(FakeHttpEngine engine, String rangePrefix) {
+        int count = 0;
+        for (HttpEngineRequest request : engine.getRequests()) {
+            if (request.getHeaders().get("Range").startsWith(rangePrefix)) count++;
+        }
+        return count;
+    }
+
+    // Rangeヘッダの範囲を返す
+    private static FakeHttpEngine.FakeResponse range(HttpEngineRequest request) {
+        String range = request.getHeaders().get("Range");
+        int separator = range.indexOf('-');
+        int start = Integer.parseInt(range.substring("bytes=".length(), separator));
+        int end = Integer.parseInt(range.substring(separator + 1));
+        return new FakeHttpEngine.FakeResponse(206)
+                .header("ETag", ETAG)
+                .header("Content-Range", "bytes " + start + "-" + end + "/" + DATA.length)
+                .body(Arrays.copyOfRange(DATA, start, end + 1));
+    }
+
+    private static File createTempFile() throws IOException {
+        File file = File.createTempFile("okblib", ".bin");
+        file.delete();
+        file.deleteOnExit();
+        new File(file.getPath() + ".part").deleteOnExit();
+        return file;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int)file.length()];
+        try (InputStream inStream = new FileInputStream(file)) {
+            int offset = 0;
+            int size;
+            while (offset < bytes.length && (size = inStream.read(bytes, offset, bytes.length - offset)) != -1) offset += size;
+        }
+        return bytes;
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte)(i * 31 + i / 256);
+        return data;
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.insprout.okblib.network;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * HttpRequestの coalesce()による 同時に実行された 同じ内容の GETリクエストの集約を確認する
+ */
+public class HttpSingleFlightTest {
+    private final static String URL = "http://127.0.0.1/shared";
+    private final static int FOLLOWERS = 3;
+    private final static long FOLLOWER_WAIT_MILLI_SEC = 300;       // 後から実行したリクエストが 待機を始めるまでの時間
+
+
+    @Test
+    public void concurrentRequests_shareResponse() throws Exception {
+        BlockingResponder responder = new BlockingResponder();
+        FakeHttpEngine engine = new FakeHttpEngine(responder);
+        long sharedCount = HttpRequest.getCoalescedCount();
+
+        List<Call> calls = new ArrayList<>();
+        calls.add(new Call(new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine).coalesce(true), null));
+        assertTrue(responder.awaitConnected());
+        for (int i = 0; i < FOLLOWERS; i++) {
+            calls.add(new Call(new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine).coalesce(true), null));
+        }
+        Thread.sleep(FOLLOWER_WAIT_MILLI_SEC);
+        responder.release();
+
+        for (Call call : calls) {
+            HttpResponse response = call.join();
+            assertEquals(200, response.getHttpStatus());
+            assertEquals("shared body", response.getResponseBody());
+        }
+        assertEquals(1, engine.getRequestCount());
+        assertEquals(sharedCount + FOLLOWERS, HttpRequest.getCoalescedCount());
+    }
+
+    @Test
+    public void concurrentDownloads_copyFile() throws Exception {
+        BlockingResponder responder = new BlockingResponder();
+        FakeHttpEngine engine = new FakeHttpEngine(responder);
+        File leaderFile = createTempFile();
+        File followerFile = createTempFile();
+
+        Call leader = new Call(new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine).coalesce(true), leaderFile);
+        assertTrue(responder.awaitConnected());
+        Call follower = new Call(new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine).coalesce(true), followerFile);
+        Thread.sleep(FOLLOWER_WAIT_MILLI_SEC);
+        responder.release();
+
+        assertEquals(200, leader.join().getHttpStatus());
+        assertEquals(200, follower.join().getHttpStatus());
+        assertEquals(1, engine.getRequestCount());
+        // 受信したファイルを それぞれの出力先にコピーする
+        assertEquals("shared body", readFile(leaderFile));
+        assertEquals("shared body", readFile(followerFile));
+    }
+
+    @Test
+    public void abortedLeader_followerExecutesItself() throws Exception {
+        BlockingResponder responder = new BlockingResponder();
+        FakeHttpEngine engine = new FakeHttpEngine(responder);
+
+        HttpRequest leaderRequest = new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine).coalesce(true);
+        Call leader = new Call(leaderRequest, null);
+        assertTrue(responder.awaitConnected());
+        Call follower = new Call(new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine).coalesce(true), null);
+        Thread.sleep(FOLLOWER_WAIT_MILLI_SEC);
+        leaderRequest.abort();
+        responder.release();
+
+        assertEquals(HttpRequest.STATUS_INTERRUPTED, leader.join().getHttpStatus());
+        // 通信を行ったリクエストが中断された場合は 結果を共有せずに 自身で通信を行う
+        assertEquals("shared body", follower.join().getResponseBody());
+        assertEquals(2, engine.getRequestCount());
+    }
+
+    @Test
+    public void differentRequests_notShared() throws Exception {
+        BlockingResponder responder = new BlockingResponder();
+        FakeHttpEngine engine = new FakeHttpEngine(responder);
+
+        Call first = new Call(new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine).coalesce(true), null);
+        assertTrue(responder.awaitConnected());
+        // URLが異なる場合や、集約を指定していない場合は 結果を共有しない
+        Call other = new Call(new HttpRequest(HttpRequest.METHOD_GET, URL + "?q=1").setEngine(engine).coalesce(true), null);
+        Call uncoalesced = new Call(new HttpRequest(HttpRequest.METHOD_GET, URL).setEngine(engine), null);
+        Thread.sleep(FOLLOWER_WAIT_MILLI_SEC);
+        responder.release();
+
+        first.join();
+        other.join();
+        uncoalesced.join();
+        assertEquals(3, engine.getRequestCount());
+    }
+
+
+    private static File createTempFile() throws IOException {
+        File file = File.createTempFile("okblib", ".txt");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static String readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int)file.length()];
+        try (InputStream inStream = new FileInputStream(file)) {
+            int offset = 0;
+            int size;
+            while (offset < bytes.length && (size = inStream.read(bytes, offset, bytes.length - offset)) != -1) offset += size;
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    // 別スレッドで リクエストを実行する
+    private static class Call {
+        private final Thread mThread;
+        private volatile HttpResponse mResponse = null;
+
+        Call(final HttpRequest request, final File responseFile) {
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    mResponse = request.execute(responseFile);
+                }
+            });
+            mThread.start();
+        }
+
+        HttpResponse join() throws InterruptedException {
+            mThread.join(10000);
+            assertNotNull(mResponse);
+            return mResponse;
+        }
+    }
+
+    // 最初のリクエストは release()が呼ばれるまで レスポンスを返さない
+    private static class BlockingResponder implements FakeHttpEngine.Responder {
+        private final CountDownLatch mConnected = new CountDownLatch(1);
+        private final CountDownLatch mReleased = new CountDownLatch(1);
+
+        boolean awaitConnected() throws InterruptedException {
+            return mConnected.await(10, TimeUnit.SECONDS);
+        }
+
+        void release() {
+            mReleased.countDown();
+        }
+
+        @Override
+        public FakeHttpEngine.FakeResponse respond(HttpEngineRequest request, int index) throws IOException {
+            if (index == 0) {
+                mConnected.countDown();
+                try {
+                    mReleased.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return new FakeHttpEngine.FakeResponse(200).body("shared body");
+        }
+    }
+
+}